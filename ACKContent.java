@@ -1,50 +1,80 @@
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class ACKContent {
-	String packetType;
+	private static final int[] NO_SACK_BLOCKS = new int[0];
+
 	int packetNumber;
+	int[] sackBlocks;		// start/end pairs of packet numbers the receiver has buffered
+	int sackBlockCount;
 	boolean validACK;
-	
+
 	ACKContent(int packetNumber)
 	{
-		packetType = "ACK";
+		this(packetNumber, NO_SACK_BLOCKS, 0);
+	}
+
+	ACKContent(int packetNumber, int[] sackBlocks, int sackBlockCount)
+	{
 		this.packetNumber = packetNumber;
+		this.sackBlocks = (sackBlockCount == 0) ? NO_SACK_BLOCKS : Arrays.copyOf(sackBlocks, sackBlockCount * 2);
+		this.sackBlockCount = sackBlockCount;
 		validACK = true;
 	}
-	
-	ACKContent(DatagramPacket packet) 
+
+	ACKContent(DatagramPacket packet)
 	{
-		byte[] data;
-		data = packet.getData();
-		String packetString = new String(data);
-		if(packetString.substring(0,3).equals("ACK"))
+		this(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
+	}
+
+	ACKContent(ByteBuffer buffer)
+	{
+		sackBlocks = NO_SACK_BLOCKS;
+		if(PacketCodec.packetType(buffer) == PacketCodec.TYPE_ACK)
 		{
-			this.packetType = "ACK";
-			this.packetNumber = Integer.parseInt(packetString.substring(3, 5));
-			validACK = true;
+			this.packetNumber = PacketCodec.packetNumber(buffer);
+			sackBlockCount = PacketCodec.sackBlockCount(buffer);
+			if(sackBlockCount > 0)
+			{
+				sackBlocks = new int[sackBlockCount * 2];
+				for(int i = 0; i < sackBlocks.length; i++)
+					sackBlocks[i] = PacketCodec.sackBlockEdge(buffer, i);
+			}
+			validACK = packetNumber >= 0;
 		}
 		else
 			validACK = false;
 	}
-	
+
 	public DatagramPacket toDatagramPacket() {
-		DatagramPacket packet= null;
-		try 
-		{
-			String content = packetType + ((packetNumber < 10) ? "0" + packetNumber : "" + packetNumber);
-			byte[] data = content.getBytes();
-			packet = new DatagramPacket(data, data.length);
-		} catch(Exception e) { e.printStackTrace(); }
-		return packet;
+		byte[] data = new byte[PacketCodec.ackLength(sackBlockCount)];
+		PacketCodec.writeACK(ByteBuffer.wrap(data), packetNumber, sackBlocks, sackBlockCount);
+		return new DatagramPacket(data, data.length);
 	}
-	
+
 	public boolean isValidACK()
 	{
 		return validACK;
 	}
-	
+
 	public int getACKNumber()
 	{
 		return packetNumber;
 	}
+
+	public int getSACKBlockCount()
+	{
+		return sackBlockCount;
+	}
+
+	public int getSACKBlockStart(int block)
+	{
+		return sackBlocks[block * 2];
+	}
+
+	public int getSACKBlockEnd(int block)
+	{
+		return sackBlocks[block * 2 + 1];
+	}
 }
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ *
+ * ChannelTransport class
+ *
+ * A non-blocking DatagramChannel in place of the DatagramSocket. Rather than every node having
+ * its own blocked listener thread, all the channels in the process are registered with one
+ * SelectorLoop, which waits on all of them at once. When a channel is readable, the loop drains
+ * up to RECEIVE_BATCH datagrams from it into a direct buffer before moving on, handing each one
+ * to its node as it goes.
+ */
+public class ChannelTransport extends Transport {
+	// Most datagrams taken from one channel each time it is selected, e.g. -Dnode.receiveBatch=128
+	static final int RECEIVE_BATCH = Integer.getInteger("node.receiveBatch", 64);
+
+	private static SelectorLoop sharedLoop;
+
+	private final DatagramChannel channel;
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(PACKETSIZE);
+	private Node receiver;
+
+	ChannelTransport(int port) throws IOException
+	{
+		channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+	}
+
+	private static synchronized SelectorLoop getSelectorLoop() throws IOException
+	{
+		if(sharedLoop == null) sharedLoop = new SelectorLoop();
+		return sharedLoop;
+	}
+
+	public void start(Node receiver)
+	{
+		this.receiver = receiver;
+		try {
+			getSelectorLoop().register(this);
+		} catch (IOException e) { e.printStackTrace(); }
+	}
+
+	// Sends can come from any thread (the node itself, the retransmission scheduler...), and they
+	// all share the one direct send buffer. A datagram that doesn't fit in the socket's send buffer
+	// right now is dropped, just as it could be on the network, and ARQ will resend it. So is one
+	// too big for the send buffer, rather than letting put() throw at whoever happened to send it.
+	public synchronized void send(DatagramPacket packet) throws IOException
+	{
+		if(packet.getLength() > sendBuffer.capacity()) return;
+		sendBuffer.clear();
+		sendBuffer.put(packet.getData(), packet.getOffset(), packet.getLength());
+		sendBuffer.flip();
+		channel.send(sendBuffer, packet.getSocketAddress());
+	}
+
+	public void close()
+	{
+		try {
+			channel.close();
+		} catch (IOException e) { e.printStackTrace(); }
+	}
+
+	// Called on the selector thread when the channel is readable
+	private void drain(ByteBuffer receiveBuffer) throws IOException
+	{
+		for(int i = 0; i < RECEIVE_BATCH; i++)
+		{
+			receiveBuffer.clear();
+			InetSocketAddress sender = (InetSocketAddress) channel.receive(receiveBuffer);
+			if(sender == null) return;		// nothing more waiting
+			receiveBuffer.flip();
+			receiver.onReceipt(receiveBuffer, sender);
+		}
+	}
+
+	/**
+	 *
+	 * SelectorLoop thread
+	 *
+	 * One thread per process, serving every ChannelTransport. Channels are registered by
+	 * queueing them and waking the selector up, since a channel can only be registered
+	 * while the selector isn't blocked in select().
+	 */
+	static class SelectorLoop extends Thread {
+		private final Selector selector;
+		private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(PACKETSIZE);
+		private final ConcurrentLinkedQueue<ChannelTransport> pendingRegistrations = new ConcurrentLinkedQueue<ChannelTransport>();
+
+		SelectorLoop() throws IOException
+		{
+			super("SelectorLoop");
+			selector = Selector.open();
+			setDaemon(true);
+			start();
+		}
+
+		void register(ChannelTransport transport)
+		{
+			pendingRegistrations.add(transport);
+			selector.wakeup();
+		}
+
+		public void run()
+		{
+			while(true)
+			{
+				try
+				{
+					selector.select();
+
+					ChannelTransport newTransport;
+					while((newTransport = pendingRegistrations.poll()) != null)
+					{
+						try {
+							newTransport.channel.register(selector, SelectionKey.OP_READ, newTransport);
+						} catch (ClosedChannelException e) { /* closed before it was registered */ }
+					}
+
+					Iterator<SelectionKey> readyKeys = selector.selectedKeys().iterator();
+					while(readyKeys.hasNext())
+					{
+						SelectionKey key = readyKeys.next();
+						readyKeys.remove();
+						if(!key.isValid()) continue;
+						try {
+							((ChannelTransport) key.attachment()).drain(receiveBuffer);
+						} catch (IOException e) { key.cancel(); }
+					}
+				}
+				catch (Exception e) { e.printStackTrace(); }
+			}
+		}
+	}
+}
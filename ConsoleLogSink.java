@@ -0,0 +1,27 @@
+import java.io.PrintStream;
+
+/**
+ *
+ * ConsoleLogSink class
+ *
+ * Writes the log to a PrintStream (standard output, for a headless node). The stream is only
+ * flushed once per batch of lines rather than after every one.
+ */
+public class ConsoleLogSink implements LogSink {
+	private final PrintStream out;
+
+	ConsoleLogSink(PrintStream out)
+	{
+		this.out = out;
+	}
+
+	public void write(String line)
+	{
+		out.println(line);
+	}
+
+	public void flush()
+	{
+		out.flush();
+	}
+}
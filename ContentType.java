@@ -0,0 +1,8 @@
+/*
+ *  Content Types carried in the header of a SND packet. The ordinal is what goes on
+ *  the wire, so new types must only ever be appended to the end of this list.
+ */
+
+public enum ContentType {
+	HELLO, FETRQ, FETRP, PACIN, FLWMD, FLWDL
+}
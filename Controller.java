@@ -1,10 +1,11 @@
-import java.net.DatagramSocket;
-import java.io.IOException;
-import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Timer;
-
-import tcdIO.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  *
@@ -16,82 +17,105 @@ import tcdIO.*;
 public class Controller extends Node {
 	static final String DEFAULT_DST_NODE = "localhost";	
 	static final int Controller_SRC_PORT = 50000;
-	static ArrayList<NodeData> connectedRouters = new ArrayList<NodeData>();
-	static ControllerFlowTable controllerFlowTable = new ControllerFlowTable();
+	ArrayList<NodeData> connectedRouters = new ArrayList<NodeData>();
+	ControllerFlowTable controllerFlowTable;
+	
+	// Once a router has had a flow table, it is only sent what changes after that (a FLWDL),
+	// unless the whole table would be shorter. Run with -Dcontroller.flowDeltas=false to always
+	// send the whole table.
+	static final boolean FLOW_DELTAS = Boolean.parseBoolean(System.getProperty("controller.flowDeltas", "true"));
+	HashMap<String, SentFlowTable> sentFlowTables = new HashMap<String, SentFlowTable>();
+	
+	// With -Dcontroller.parallelFlows=true, the flow table of every router is worked out as soon
+	// as the topology changes, on a pool of -Dcontroller.flowThreads threads (by default one per
+	// core), rather than each one when its router asks for it
+	static final boolean PARALLEL_FLOWS = Boolean.getBoolean("controller.parallelFlows");
+	static final int FLOW_THREADS = Integer.getInteger("controller.flowThreads", Runtime.getRuntime().availableProcessors());
+	ForkJoinPool flowPool;
+	
+	// With -Dcontroller.proactiveFlows=true, every router whose flow table has changed is sent
+	// the new one as soon as the topology changes, rather than waiting for it to send a PACIN
+	// (and hold on to the packet that caused it) when it comes across a host it doesn't know
+	static final boolean PROACTIVE_FLOWS = Boolean.getBoolean("controller.proactiveFlows");
+	
+	// With -Dcontroller.batchWindowMs=N, a PACIN isn't answered straight away. Any others that
+	// arrive in the next N milliseconds (as when every router is starting up at once) are
+	// collected with it, and then all of their flow tables are worked out together over the
+	// same graph (see ControllerFlowTable.updateFlowCharts()). A router that asked more than
+	// once in that time only gets the one answer. 0 answers every PACIN as it arrives.
+	static final long BATCH_WINDOW_MS = Long.getLong("controller.batchWindowMs", 0);
+	private LinkedHashMap<NodeData, Boolean> batchedRequests = new LinkedHashMap<NodeData, Boolean>();	// and whether it wants a resync
+	private RetransmissionScheduler.Timeout batchTimeout;
+	private boolean batchWindowOver;
+	
+	EventLog log;
 	
-	Terminal terminal;
+	// How many of each type of packet the Controller has been sent, and has sent, indexed by
+	// ContentType ordinal. Resends aren't counted.
+	final AtomicLongArray packetsReceived = new AtomicLongArray(ContentType.values().length);
+	final AtomicLongArray packetsSent = new AtomicLongArray(ContentType.values().length);
+	final ControllerStatistics statistics = new ControllerStatistics(this);
 	
-	Controller(Terminal terminal, String dstHost, int srcPort) {
+	// The last flow table we sent to a router, its version, and the topology version its
+	// routes were worked out at
+	static class SentFlowTable {
+		long version;
+		long topologyVersion;
+		LinkedHashMap<String, String> entries;
+	}
+	
+	Controller(EventLog log, String dstHost, int srcPort) {
 		try 
 		{
-			this.terminal = terminal;
-			socket = new DatagramSocket(srcPort);
-			listener.go();
+			this.log = log;
+			controllerFlowTable = new ControllerFlowTable(log);
+			if(PARALLEL_FLOWS) flowPool = new ForkJoinPool(FLOW_THREADS);
+			Metrics.registerNode("Controller", "Controller", statistics);
+			transport = Transport.open(srcPort);
+			transport.start(this);
 		}
 		catch(java.lang.Exception e) { e.printStackTrace(); }
 	}
 
-	public synchronized void onReceipt(DatagramPacket receivedPacket) {
+	public synchronized void onReceipt(ByteBuffer receivedPacket, InetSocketAddress sender) {
 		// First we need to find the router that this packet was delivered from
 		// so we can communicate back later
-		int portDeliveredFrom = receivedPacket.getPort();
+		int portDeliveredFrom = sender.getPort();
 		NodeData nodeDeliveredFrom = findNode(portDeliveredFrom);
 		
 		// First check its an ACK, else it is a SND		
 		ACKContent potentialACK = new ACKContent(receivedPacket);
 		if(potentialACK.isValidACK())
-			acceptACKs(nodeDeliveredFrom, potentialACK.getACKNumber());
+		{
+			if(nodeDeliveredFrom != null) nodeDeliveredFrom.acceptACKs(potentialACK);
+		}
 		else
 		{
 			SNDContent newPacket = new SNDContent(receivedPacket);
 			
-			if(newPacket.isValid() && newPacket.getContentType().equals("HELLO"))
-				registerNewRouter(receivedPacket);
-			else if(newPacket.isValid() && newPacket.getPacketNumber() == nodeDeliveredFrom.getNextExpectedPackNum())
+			// A HELLO from a router we already know is just a resend of its first packet, 
+			// so it is ACKed like any other duplicate rather than registering the router twice.
+			if(newPacket.isValid() && newPacket.getContentType() == ContentType.HELLO && nodeDeliveredFrom == null)
+				registerNewRouter(portDeliveredFrom, newPacket);
+			else if(newPacket.isValid() && nodeDeliveredFrom != null)
 			{
-				// Immediately send ACK
-				nodeDeliveredFrom.incrementNextExpectedPackNum();
-				sendACK(nodeDeliveredFrom);
+				// Immediately send ACK, then deal with whichever packets are now in order
+				ArrayList<SNDContent> inOrderPackets = nodeDeliveredFrom.receivePacket(newPacket);
+				nodeDeliveredFrom.sendACK();
 				
-				if(newPacket.getContentType().equals("FETRP"))
-					generateRoutersConnectionsFromFeatureReply(nodeDeliveredFrom, newPacket);
-				else if(newPacket.getContentType().equals("PACIN"))
-					createNewFlowTableForRouter(nodeDeliveredFrom);
-			}
-			else 
-			{		
-				// Send an ACK with next expected packet number if this node 
-				// has already sent us this packet. We don't increment the 
-				// next expected packet number here.
-				if(nodeDeliveredFrom != null) sendACK(nodeDeliveredFrom);
+				for(SNDContent inOrderPacket : inOrderPackets)
+				{
+					packetsReceived.incrementAndGet(inOrderPacket.getContentType().ordinal());
+					if(inOrderPacket.getContentType() == ContentType.FETRP)
+						generateRoutersConnectionsFromFeatureReply(nodeDeliveredFrom, inOrderPacket);
+					else if(inOrderPacket.getContentType() == ContentType.PACIN)
+						handleFlowRequest(nodeDeliveredFrom, inOrderPacket);
+				}
 			}
 		}
 		this.notify();
 	}
 	
-	private void acceptACKs(NodeData nodeDeliveredFrom, int latestACK) {
-		// Decrement ACK Packet Number by 1
-		int iterationACK = (15 + latestACK) % 16;
-
-		// find last timer placed in Go-Back-N Window
-		Timer packetTimerIteration = nodeDeliveredFrom.goBackNWindow[iterationACK];
-		
-		// until we reach the null element...
-		while (packetTimerIteration != null) 
-		{
-			// cancel timer and nullify it on array
-			packetTimerIteration.cancel(); 
-			nodeDeliveredFrom.goBackNWindow[iterationACK] = null;
-			
-			// Continue the while loop, so we can also ACK all previous messages to this router
-			packetTimerIteration = nodeDeliveredFrom.goBackNWindow[iterationACK];
-			nodeDeliveredFrom.goBackNWindowSize--;
-			
-			// equation for cycling backwards through a cyclical array of size 16
-			iterationACK = (15 + iterationACK) % 16;
-		}
-	}
-	
 	private void generateRoutersConnectionsFromFeatureReply(NodeData nodeDeliveredFrom, SNDContent featureReplyFromRouter)
 	{
 		// When the router sends us its list of features (i.e. connected host and connected routers), this
@@ -108,55 +132,229 @@ public class Controller extends Node {
 		}
 		
 		controllerFlowTable.addANewRouter(routerInformation);
-		terminal.println("FeatureReply received from " + routerInformation[0]);
+		log.log(EventLog.Event.SETUP, "FeatureReply received from " + routerInformation[0]);
+		
+		if(flowPool != null || PROACTIVE_FLOWS)
+		{
+			long computationStart = System.nanoTime();
+			HashMap<String, String> flowCharts = controllerFlowTable.updateAllFlowCharts(flowPool);
+			statistics.flowComputationTimes.record(System.nanoTime() - computationStart);
+			log.log(EventLog.Event.FLOW_UPDATE, "Flow tables worked out for " + flowCharts.size() + " routers");
+			if(PROACTIVE_FLOWS) pushFlowCharts(flowCharts);
+		}
 	}
 	
-	private void registerNewRouter(DatagramPacket receivedPacket)
+	// Sends each router its new flow table, unless it is the same as the last one it was sent.
+	// Routers that have had a table before are only sent the changes (see createFlowModification()).
+	private void pushFlowCharts(HashMap<String, String> flowCharts)
+	{
+		for(NodeData router : connectedRouters)
+		{
+			String routerName = router.getNodeName();
+			String flowChart = flowCharts.get(routerName);
+			if(flowChart == null) continue;
+			
+			// A router that already has this table has routes as current as the new ones
+			SentFlowTable previous = sentFlowTables.get(routerName);
+			if(previous != null && previous.entries.equals(FlowModification.parseEntries(flowChart, 0)))
+			{
+				previous.topologyVersion = controllerFlowTable.getGraph().version;
+				continue;
+			}
+			
+			if(sendFlowModification(router, flowChart, false))
+				log.log(EventLog.Event.FLOW_UPDATE, "New flow chart pushed to Router " + routerName);
+		}
+	}
+	
+	private void registerNewRouter(int portDeliveredFrom, SNDContent content)
 	{
-		SNDContent content = new SNDContent(receivedPacket);
-		
 		// If the Controller doesn't recognise this node, we have to register it as a connectedRouter
 	
 		// create a new NodeData and add it to the list of connected routers. The packet content here is just 
 		// the name of the router saying hello.
-		NodeData newRouter = new NodeData(socket, receivedPacket.getPort(), "ROUTER", content.getPacketContent(), 0);
+		NodeData newRouter = new NodeData(transport, portDeliveredFrom, "ROUTER", content.getPacketContent(), 0);
 		connectedRouters.add(newRouter);
 		newRouter = connectedRouters.get(connectedRouters.size()-1);
-		terminal.println("Router " + newRouter.getNodeName() + " says hello!");
+		Metrics.registerLink("Controller", newRouter);
+		log.log(EventLog.Event.SETUP, "Router " + newRouter.getNodeName() + " says hello!");
 		
 		// Send ACK back
-		newRouter.incrementNextExpectedPackNum();
-		sendACK(newRouter);
+		packetsReceived.incrementAndGet(content.getContentType().ordinal());
+		newRouter.receivePacket(content);
+		newRouter.sendACK();
 		
 		// Send "Hello" back to router
-		SNDContent sayHelloBack = new SNDContent("SND00HELLO0000" + '\u0003');
-		newRouter.sendPacket(sayHelloBack);
+		SNDContent sayHelloBack = new SNDContent(ContentType.HELLO, "");
+		sendToRouter(newRouter, sayHelloBack);
 		
 		// Then send a feature request to the Router. The router will
 		// send back a Feature Reply, which will name the host it is connected
 		// to, the routers it is connected to, and the distances.
 		
-		SNDContent featureRequest = new SNDContent("SND00FETRQ0000" + '\u0003');
-		newRouter.sendPacket(featureRequest);
-		terminal.println("Sending FeatureRequest to " + newRouter.getNodeName());
+		SNDContent featureRequest = new SNDContent(ContentType.FETRQ, "");
+		sendToRouter(newRouter, featureRequest);
+		log.log(EventLog.Event.SETUP, "Sending FeatureRequest to " + newRouter.getNodeName());
+	}
+	
+	// A PACIN naming the host the router is looking for is answered with the route to that host.
+	// Without one (or for a RESYNC) the router gets its whole table worked out again.
+	private void handleFlowRequest(NodeData nodeDeliveredFrom, SNDContent request)
+	{
+		boolean resync = FlowModification.RESYNC.equals(request.getPacketContent());
+		if(resync) statistics.resyncRequestsReceived.increment();
+		if(BATCH_WINDOW_MS > 0)
+		{
+			Boolean earlierResync = batchedRequests.get(nodeDeliveredFrom);
+			batchedRequests.put(nodeDeliveredFrom, resync || (earlierResync != null && earlierResync));
+			if(batchTimeout == null)
+				batchTimeout = RetransmissionScheduler.getScheduler().schedule(this::endBatchWindow, BATCH_WINDOW_MS, 0);
+		}
+		else if(resync || request.getDestinationHostID() == SNDContent.NO_NODE_ID)
+			createNewFlowTableForRouter(nodeDeliveredFrom, resync);
+		else
+			createFlowTableTowards(nodeDeliveredFrom, request.getDestinationHostName());
 	}
 	
-	private void createNewFlowTableForRouter(NodeData nodeDeliveredFrom)
+	// Run by the scheduler. The flow tables are worked out on the thread waiting in start(), so that
+	// the scheduler can carry on with retransmissions in the meantime.
+	private synchronized void endBatchWindow()
+	{
+		batchWindowOver = true;
+		this.notify();
+	}
+	
+	private void answerBatchedRequests()
+	{
+		batchWindowOver = false;
+		LinkedHashMap<NodeData, Boolean> requests = batchedRequests;
+		batchedRequests = new LinkedHashMap<NodeData, Boolean>();
+		batchTimeout = null;
+		
+		ArrayList<String> routerNames = new ArrayList<String>();
+		for(NodeData router : requests.keySet())
+			routerNames.add(router.getNodeName());
+		log.log(EventLog.Event.FLOW_REQUEST, routerNames.size() + " routers have requested a new Flow Table. Finding shortest routes...");
+		long computationStart = System.nanoTime();
+		HashMap<String, String> flowCharts = controllerFlowTable.updateFlowCharts(routerNames, flowPool);
+		statistics.flowComputationTimes.record(System.nanoTime() - computationStart);
+		
+		for(Map.Entry<NodeData, Boolean> request : requests.entrySet())
+		{
+			String routerName = request.getKey().getNodeName();
+			String updatedFlowChart = flowCharts.get(routerName);
+			if(updatedFlowChart != null)
+			{
+				if(sendFlowModification(request.getKey(), updatedFlowChart, request.getValue()))
+					log.log(EventLog.Event.FLOW_UPDATE, "New flow chart created and sent to Router " + routerName);
+			}
+			else
+				log.log(EventLog.Event.FLOW_REQUEST, "Cannot produce flow chart for " + routerName + ", waiting for FeatureReply");
+		}
+	}
+	
+	private void createFlowTableTowards(NodeData nodeDeliveredFrom, String hostName)
+	{
+		String routerName = nodeDeliveredFrom.getNodeName();
+		log.log(EventLog.Event.FLOW_REQUEST, routerName + " has requested a route to " + hostName + ". Finding shortest route...");
+		
+		long computationStart = System.nanoTime();
+		ShortestPathTree shortestPaths = controllerFlowTable.findPathsTowards(routerName, hostName);
+		if(shortestPaths == null)
+		{
+			log.log(EventLog.Event.FLOW_REQUEST, "Cannot produce flow chart for " + routerName + ", waiting for FeatureReply");
+			return;
+		}
+		
+		// If only part of the tree was worked out, the hosts it doesn't reach keep whatever
+		// entry the router was last sent for them. That is only right if those entries were
+		// worked out over the same topology. Otherwise they might go the old way round, and
+		// the router will never ask about those hosts again, so it is given the whole tree.
+		String updatedFlowChart = shortestPaths.getFlowChart();
+		SentFlowTable previous = sentFlowTables.get(routerName);
+		if(!shortestPaths.complete && previous != null)
+		{
+			if(previous.topologyVersion == shortestPaths.graph.version)
+			{
+				LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(previous.entries);
+				entries.putAll(FlowModification.parseEntries(updatedFlowChart, 0));
+				updatedFlowChart = FlowModification.encodeEntries(entries);
+			}
+			else
+				updatedFlowChart = controllerFlowTable.updateFlowChartForRouter(routerName);
+		}
+		statistics.flowComputationTimes.record(System.nanoTime() - computationStart);
+		if(sendFlowModification(nodeDeliveredFrom, updatedFlowChart, false))
+			log.log(EventLog.Event.FLOW_UPDATE, "Route to " + hostName + " sent to Router " + routerName);
+	}
+	
+	private void createNewFlowTableForRouter(NodeData nodeDeliveredFrom, boolean resync)
 	{
 		String routerName = nodeDeliveredFrom.getNodeName();
-		terminal.println(routerName + " has requested a new Flow Table. Finding shortest routes...");
+		log.log(EventLog.Event.FLOW_REQUEST, routerName + " has requested a new Flow Table. Finding shortest routes...");
 		
+		long computationStart = System.nanoTime();
 		String updatedFlowChart = controllerFlowTable.updateFlowChartForRouter(routerName);
-		SNDContent FLWMDToRouter = new SNDContent("SND00FLWMD0000" + updatedFlowChart + '\u0003');
 		if(updatedFlowChart != null)
 		{
-			nodeDeliveredFrom.sendPacket(FLWMDToRouter);
-			terminal.println("New flow chart created and sent to Router " + routerName);
+			statistics.flowComputationTimes.record(System.nanoTime() - computationStart);
+			if(sendFlowModification(nodeDeliveredFrom, updatedFlowChart, resync))
+				log.log(EventLog.Event.FLOW_UPDATE, "New flow chart created and sent to Router " + routerName);
+		}
+		else
+			log.log(EventLog.Event.FLOW_REQUEST, "Cannot produce flow chart for " + routerName + ", waiting for FeatureReply");
+	}
+	
+	// Returns a FLWDL with just the changes since the last table we sent this router, or a FLWMD
+	// with the whole table if it hasn't had one yet, has asked for a resync, or the changes
+	// would take up more room than the table itself.
+	private SNDContent createFlowModification(String routerName, String updatedFlowChart, boolean resync)
+	{
+		SentFlowTable previous = sentFlowTables.get(routerName);
+		SentFlowTable next = new SentFlowTable();
+		next.version = (previous == null) ? 1 : FlowModification.nextVersion(previous.version);
+		next.topologyVersion = controllerFlowTable.getGraph().version;
+		next.entries = FlowModification.parseEntries(updatedFlowChart, 0);
+		sentFlowTables.put(routerName, next);
+		
+		String fullTable = FlowModification.encodeFullTable(next.version, updatedFlowChart);
+		if(FLOW_DELTAS && previous != null && !resync)
+		{
+			String delta = FlowModification.encodeDelta(previous.version, next.version, previous.entries, next.entries);
+			if(delta.length() < fullTable.length())
+				return new SNDContent(ContentType.FLWDL, delta);
 		}
+		return new SNDContent(ContentType.FLWMD, fullTable);
+	}
+	
+	// If the flow table can't be sent, the router still has the one it was sent before, so that
+	// one is put back. The next table it is sent is then worked out against what it really has.
+	private boolean sendFlowModification(NodeData router, String updatedFlowChart, boolean resync)
+	{
+		String routerName = router.getNodeName();
+		SentFlowTable previous = sentFlowTables.get(routerName);
+		if(sendToRouter(router, createFlowModification(routerName, updatedFlowChart, resync))) return true;
+		
+		if(previous == null)
+			sentFlowTables.remove(routerName);
 		else
-			terminal.println("Cannot produce flow chart for " + routerName + ", waiting for FeatureReply");
+			sentFlowTables.put(routerName, previous);
+		log.log(EventLog.Event.PACKET_DROPPED, "Flow table for Router " + routerName + " dropped, its egress queue is full");
+		return false;
 	}
 	
+	// Returns false if the router's window and egress queue were both full, in which case the
+	// packet is dropped and isn't counted as sent
+	private boolean sendToRouter(NodeData router, SNDContent packet)
+	{
+		if(!router.sendPacket(packet))
+		{
+			statistics.packetsDroppedEgressQueueFull.increment();
+			return false;
+		}
+		packetsSent.incrementAndGet(packet.getContentType().ordinal());
+		return true;
+	}
 	
 	public NodeData findNode(int portDeliveredFrom)
 	{
@@ -168,33 +366,22 @@ public class Controller extends Node {
 		return null;
 	}
 	
-	private void sendACK(NodeData nodeDeliveredFrom)
-	{
-		// ACKs are typically only sent once, so we do not have to designate a timer
-		// to them, and we do not have to add them to our Go-Back-N window.
-		ACKContent newACK = new ACKContent(nodeDeliveredFrom.getNextExpectedPackNum());
-		DatagramPacket ackPacket = newACK.toDatagramPacket(); 
-		ackPacket.setSocketAddress(nodeDeliveredFrom.getDstAddress()); 
-		try {
-			socket.send(ackPacket);
-		} catch (IOException e) { e.printStackTrace(); }; 
-	}
-	
 	public synchronized void start() throws Exception {		
-		terminal.println("Controller (PORT " + Controller_SRC_PORT + "):");
-		terminal.println("Awaiting Routers...");
+		log.log(EventLog.Event.SETUP, "Controller (PORT " + Controller_SRC_PORT + "):");
+		log.log(EventLog.Event.SETUP, "Awaiting Routers...");
 		
 		while(true)
 		{
-			// Nothing for Controller to do here, so stay in loop of this.wait()
+			// Nothing for Controller to do here, other than answering batched PACINs, 
+			// so stay in loop of this.wait()
 			this.wait();
+			if(batchWindowOver) answerBatchedRequests();
 		}
 	}
 
 	public static void main(String[] args) {
 		try {					
-			Terminal terminal = new Terminal("Controller");		
-			(new Controller(terminal, DEFAULT_DST_NODE, Controller_SRC_PORT)).start();
+			(new Controller(EventLog.open("Controller"), DEFAULT_DST_NODE, Controller_SRC_PORT)).start();
 		} catch(java.lang.Exception e) {e.printStackTrace();}
 	}
 }
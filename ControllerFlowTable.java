@@ -1,4 +1,9 @@
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class ControllerFlowTable {
 	
@@ -7,11 +12,12 @@ public class ControllerFlowTable {
 	// For the sake of simplicity, we assume that the distance between a host and its router is zero.
 	// A router may have 0 or 1 hosts, but no more than that. 
 	
-	// I've set a rule that once a router has connected to the Controller and has signalled which routers
-	// it is connected to, then this is set and cannot be changed, i.e. it cannot directly connected to
-	// another router. However, it can discover routers it is not directly connected to later.
+	// Once a router has connected to the Controller and has signalled which routers it is connected
+	// to, this only changes if it sends another FeatureReply, which replaces the first one. Links
+	// can be added, removed or given a new distance this way. It can also discover routers it is 
+	// not directly connected to later.
 	
-	static ArrayList<DirectConnectionsPerRouter> allRouters = new ArrayList<DirectConnectionsPerRouter>();
+	ArrayList<DirectConnectionsPerRouter> allRouters = new ArrayList<DirectConnectionsPerRouter>();
 	
 	// The following two ArrayLists makes it easy for us to track all the hosts that are connected to the 
 	// network. Once a new router is added that is actually connected to a host, then we add just the name of the Host
@@ -19,8 +25,35 @@ public class ControllerFlowTable {
 	// any given index of allHostsName, the router connected to this host is in the same index in givenHostsRouter.
 	// This will be useful for creating Flow Charts that we can send to the Routers when they request them.
 	
-	static ArrayList<String> allHostNames = new ArrayList<String>();
-	static ArrayList<String> givenHostsRouter = new ArrayList<String>();
+	ArrayList<String> allHostNames = new ArrayList<String>();
+	ArrayList<String> givenHostsRouter = new ArrayList<String>();
+	
+	// Shortest paths are worked out over a TopologyGraph built from the lists above. The
+	// topology version goes up every time a router is added, and the graph is only built
+	// again once it is out of date. Every router name we hear of is given the next index
+	// in routerNames, and keeps it from then on.
+	long topologyVersion = 0;
+	private TopologyGraph graph;
+	private final IndexedMinHeap heap = new IndexedMinHeap(16);
+	private final ArrayList<String> routerNames = new ArrayList<String>();
+	private final HashMap<String, Integer> routerIndexes = new HashMap<String, Integer>();
+	
+	// The shortest path tree for each router that has asked for a flow table. Routers that are
+	// missing hosts keep asking for a new one (especially while the network is starting up),
+	// and as long as nothing has joined since, the answer is the same. When the topology does
+	// change, each tree is repaired using the links that changed since the graph was last
+	// built, rather than being worked out again from scratch. A link that changes more than once
+	// in that time is only recorded once, going from its first distance to its latest.
+	private final HashMap<String, ShortestPathTree> shortestPathTrees = new HashMap<String, ShortestPathTree>();
+	private final LinkedHashMap<Long, TopologyGraph.LinkChange> linkChanges = new LinkedHashMap<Long, TopologyGraph.LinkChange>();
+	
+	// Where the flow tables worked out are reported
+	final EventLog log;
+	
+	ControllerFlowTable(EventLog log)
+	{
+		this.log = log;
+	}
 	
 	public class DirectConnectionsPerRouter{
 		// Each Router connected to the Controller is given it's own DirectConnectionsPerRouter class. This
@@ -32,6 +65,10 @@ public class ControllerFlowTable {
 		String connectedHost;
 		public ArrayList<DistancesBetweenRouters> distances = new ArrayList<DistancesBetweenRouters>();
 		
+		// This router's index, and the index of the router each of its distances goes to
+		int routerIndex;
+		int[] linkTargets;
+		
 		public void addConnectionToNewRouter(String newRouterName, int newRouterDistance)
 		{
 			DistancesBetweenRouters newRouter = new DistancesBetweenRouters(newRouterName, newRouterDistance);
@@ -79,183 +116,272 @@ public class ControllerFlowTable {
 			newRouter.addConnectionToNewRouter(routerInformation[i], Integer.parseInt(routerInformation[i+1]));
 		}
 		
-		allRouters.add(newRouter);
+		newRouter.routerIndex = indexOfRouter(newRouter.routerName);
+		newRouter.linkTargets = new int[newRouter.distances.size()];
+		for(int i = 0; i < newRouter.linkTargets.length; i++)
+			newRouter.linkTargets[i] = indexOfRouter(newRouter.distances.get(i).toRouter);
+		
+		// If this router has sent us a FeatureReply before, this one replaces it
+		DirectConnectionsPerRouter previousRouter = null;
+		for(int i = 0; i < allRouters.size(); i++)
+		{
+			if(allRouters.get(i).routerName.equals(newRouter.routerName))
+			{
+				previousRouter = allRouters.set(i, newRouter);
+				break;
+			}
+		}
+		if(previousRouter == null)
+			allRouters.add(newRouter);
+		else
+		{
+			int hostIndex = givenHostsRouter.indexOf(newRouter.routerName);
+			if(hostIndex >= 0)
+			{
+				allHostNames.remove(hostIndex);
+				givenHostsRouter.remove(hostIndex);
+			}
+		}
 		
 		if(!(newRouter.connectedHost.equals("00")))		// If this router actually has a host
 		{
 			allHostNames.add(newRouter.connectedHost);
 			givenHostsRouter.add(newRouter.routerName);
 		}
-	}
 		
-	public String updateFlowChartForRouter(String routerName)
+		recordLinkChanges(previousRouter, newRouter);
+		topologyVersion++;
+	}
+	
+	// Works out which links out of this router have been added, removed, or have a new distance
+	private void recordLinkChanges(DirectConnectionsPerRouter previousRouter, DirectConnectionsPerRouter newRouter)
 	{
-		// This is my implementation of Djikstra's Algorithm. We start by creating
-		// three arrays, which will eventually fill to become the new Flow Table for
-		// the router requesting one. We will call the router requesting a new flow 
-		// table RouterReq. The first array is the name of the Routers that it can
-		// connect to, either directly or through another Router (essentially a list
-		// of all routers). The second array will keep track of the distance to a given 
-		// router (the index of any given router is shared between the three arrays). 
-		// The third will keep track of shortest path to this router (or more specifically,
-		// the router that RouterReq should forward on the packet to in order to reach
-		// this router).
-		
-		// The benefit of Djikstra's algorithm is that the controller does not have 
-		// to keep a overall preconfigured table of all the hosts and how to access them.
-		// We instead generate a flow table for each router that requires one, using the
-		// routers that we are aware of. 
-		
-		ArrayList<String> shortestPathTreeRouterName = new ArrayList<String>();
-		ArrayList<Integer> shortestPathTreeDistance = new ArrayList<Integer>();
-		ArrayList<String> shortestPathOut = new ArrayList<String>();
-		
-		// Next, we create three ArrayLists that will serve as the list of tentative
-		// nodes, with a similar structure as above.
-		ArrayList<String> tentativeNodeName = new ArrayList<String>();
-		ArrayList<Integer> tentativeNodeDistance = new ArrayList<Integer>();
-		ArrayList<String> tentativePathOut = new ArrayList<String>();
-		
-		// To start, we find the router requesting a new flow table on our list
-		// of allRouters
+		int from = newRouter.routerIndex;
+		HashMap<Integer, Integer> previousLinks = shortestLinks(previousRouter);
+		HashMap<Integer, Integer> newLinks = shortestLinks(newRouter);
 		
-		DirectConnectionsPerRouter routerReq = null;
-		
-		for(DirectConnectionsPerRouter iterateRouter : allRouters)
+		for(Integer to : newLinks.keySet())
+		{
+			Integer previousDistance = previousLinks.get(to);
+			recordLinkChange(from, to, (previousDistance == null) ? ShortestPathTree.UNREACHABLE : previousDistance, newLinks.get(to));
+		}
+		for(Integer to : previousLinks.keySet())
+		{
+			if(!newLinks.containsKey(to))
+				recordLinkChange(from, to, previousLinks.get(to), ShortestPathTree.UNREACHABLE);
+		}
+	}
+	
+	private void recordLinkChange(int from, int to, int oldDistance, int newDistance)
+	{
+		Long link = ((long) from << 32) | to;
+		TopologyGraph.LinkChange earlierChange = linkChanges.remove(link);
+		if(earlierChange != null) oldDistance = earlierChange.oldDistance;
+		if(oldDistance != newDistance)
+			linkChanges.put(link, new TopologyGraph.LinkChange(from, to, oldDistance, newDistance));
+	}
+	
+	// The links out of a router, by the index of the router they go to. If one is listed twice,
+	// the shorter one is the one that counts.
+	private HashMap<Integer, Integer> shortestLinks(DirectConnectionsPerRouter router)
+	{
+		HashMap<Integer, Integer> links = new HashMap<Integer, Integer>();
+		if(router == null) return links;
+		for(int i = 0; i < router.linkTargets.length; i++)
+		{
+			int distance = router.distances.get(i).distance;
+			Integer shortest = links.get(router.linkTargets[i]);
+			if(shortest == null || distance < shortest) links.put(router.linkTargets[i], distance);
+		}
+		return links;
+	}
+	
+	private int indexOfRouter(String routerName)
+	{
+		Integer index = routerIndexes.get(routerName);
+		if(index == null)
+		{
+			index = routerNames.size();
+			routerNames.add(routerName);
+			routerIndexes.put(routerName, index);
+		}
+		return index;
+	}
+	
+	// Builds the graph again if the topology has changed, and repairs every tree we are keeping
+	// with the links that have changed since last time
+	public TopologyGraph getGraph()
+	{
+		if(graph == null || graph.version != topologyVersion)
 		{
-			if(iterateRouter.routerName.equals(routerName))
+			ArrayList<TopologyGraph.LinkChange> changes = rebuildGraph();
+			for(ShortestPathTree tree : shortestPathTrees.values())
+				tree.update(graph, changes, heap);
+		}
+		return graph;
+	}
+	
+	// Returns the links that changed since the last graph, which the trees still need repairing with
+	private ArrayList<TopologyGraph.LinkChange> rebuildGraph()
+	{
+		graph = TopologyGraph.build(topologyVersion, routerNames, routerIndexes, allRouters, allHostNames, givenHostsRouter);
+		ArrayList<TopologyGraph.LinkChange> changes = new ArrayList<TopologyGraph.LinkChange>(linkChanges.values());
+		linkChanges.clear();
+		return changes;
+	}
+	
+	/*
+	 * Brings the shortest path tree of every registered router up to date at once, spread over
+	 * the threads of the pool, instead of one router at a time as they ask. Each tree is one task:
+	 * those we already have are repaired, and routers without one get a new one. The tasks only
+	 * read the graph, which never changes, and each writes to its own tree, so they don't have
+	 * to wait for each other. The flow charts are made as part of each task too, and returned
+	 * by router name, so updateFlowChartForRouter() has nothing left to do but return them.
+	 * Without a pool, the routers are simply gone through one at a time on this thread.
+	 */
+	public HashMap<String, String> updateAllFlowCharts(ForkJoinPool pool)
+	{
+		ArrayList<String> routerNames = new ArrayList<String>();
+		for(DirectConnectionsPerRouter router : allRouters)
+			routerNames.add(router.routerName);
+		return updateFlowCharts(routerNames, pool);
+	}
+	
+	// Works out the flow tables of several routers in one go, all over the same graph. Without a
+	// pool they are worked out one after the other, sharing the one heap. Routers that haven't
+	// sent their FeatureReply yet are left out of the result.
+	public HashMap<String, String> updateFlowCharts(Collection<String> requestedRouters, ForkJoinPool pool)
+	{
+		HashMap<String, String> flowCharts = new HashMap<String, String>();
+		if(pool == null)
+		{
+			for(String routerName : requestedRouters)
 			{
-				routerReq = iterateRouter;
-				break;
+				String flowChart = updateFlowChartForRouter(routerName);
+				if(flowChart != null) flowCharts.put(routerName, flowChart);
 			}
+			return flowCharts;
 		}
 		
-		// If routerReq is null at this point, then the router has not yet
-		// sent us their FeatureRequest, so there's not much we can do for them.
-		if(routerReq == null) return null;
+		ArrayList<TopologyGraph.LinkChange> changes = 
+				(graph == null || graph.version != topologyVersion) ? rebuildGraph() : new ArrayList<TopologyGraph.LinkChange>();
 		
-		// Now that we have the Router requesting a flow table, we must add it to the
-		// top of our ShortestPath arrays, and make it our first permanent node.
-		
-		shortestPathTreeRouterName.add(routerReq.routerName);
-		shortestPathTreeDistance.add(0);
-		shortestPathOut.add(routerReq.routerName);
-		
-		// Now to start the algorithm. The first step of this is to get the routers directly 
-		// connected to RoutReq, and add them to the list of tentative nodes in our algorithm.
-		// In this case only, we will get the names of the routers directly connected to RoutReq
-		// and create a short string array out of it. This will make it easier to create a flow table
-		// that RouterReq can understand, but this will be used at a later part of this algorithm.
+		// The trees we already have are repaired along with the ones asked for, as the
+		// changes they need are only known until the graph is built again
+		boolean[] requested = new boolean[graph.getRouterCount()];
+		for(String routerName : requestedRouters)
+		{
+			int router = graph.indexOf(routerName);
+			if(router >= 0 && graph.registered[router]) requested[router] = true;
+		}
+		int routerCount = 0;
+		for(int i = 0; i < graph.getRouterCount(); i++)
+			if(requested[i] || shortestPathTrees.containsKey(graph.routerNames[i])) routerCount++;
+		int[] sources = new int[routerCount];
+		ShortestPathTree[] trees = new ShortestPathTree[routerCount];
+		for(int i = 0, router = 0; i < graph.getRouterCount(); i++)
+		{
+			if(!requested[i] && !shortestPathTrees.containsKey(graph.routerNames[i])) continue;
+			sources[router] = i;
+			trees[router++] = shortestPathTrees.get(graph.routerNames[i]);
+		}
 		
-		ArrayList<String> directlyConnectedRouters = new ArrayList<String>();
+		pool.invoke(new FlowChartTask(graph, changes, sources, trees, 0, routerCount));
 		
-		for(DistancesBetweenRouters iterationRouter : routerReq.distances)
+		// Any trees that have been made from scratch are kept for next time
+		for(int router = 0; router < routerCount; router++)
 		{
-			tentativeNodeName.add(iterationRouter.toRouter);
-			tentativeNodeDistance.add(iterationRouter.distance);
-			tentativePathOut.add(iterationRouter.toRouter);
-			
-			directlyConnectedRouters.add(iterationRouter.toRouter);
+			shortestPathTrees.put(graph.routerNames[sources[router]], trees[router]);
+			if(requested[sources[router]])
+				flowCharts.put(graph.routerNames[sources[router]], trees[router].getFlowChart());
 		}
+		return flowCharts;
+	}
+	
+	/**
+	 *
+	 * FlowChartTask class
+	 *
+	 * Splits the routers from start to end in half until there is one left, and then works out
+	 * its tree. Each thread of the pool keeps its own heap to work with.
+	 */
+	static class FlowChartTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final ThreadLocal<IndexedMinHeap> WORKER_HEAPS = new ThreadLocal<IndexedMinHeap>() {
+			protected IndexedMinHeap initialValue()
+			{
+				return new IndexedMinHeap(16);
+			}
+		};
 		
-		// We constantly have to keep track of the element that was last placed on the permanent
-		// shortest path list. We'll set this as routerReq to start, and continuously update it within
-		// the following while-loop.
+		private final TopologyGraph graph;
+		private final ArrayList<TopologyGraph.LinkChange> changes;
+		private final int[] sources;
+		private final ShortestPathTree[] trees;
+		private final int start;
+		private final int end;
 		
-		DirectConnectionsPerRouter previousPermanentElement = routerReq;
+		FlowChartTask(TopologyGraph graph, ArrayList<TopologyGraph.LinkChange> changes, int[] sources, 
+				ShortestPathTree[] trees, int start, int end)
+		{
+			this.graph = graph;
+			this.changes = changes;
+			this.sources = sources;
+			this.trees = trees;
+			this.start = start;
+			this.end = end;
+		}
 		
-		while(tentativeNodeName.size() > 0)
+		protected void compute()
 		{
-			int minimumDistance = 999999;
-			int minValIndex = -1;
-			
-			// First find the element on the tentative list with the shortest distance.
-			
-			for(int index = 0; index < tentativeNodeName.size(); index++)
+			if(end - start > 1)
 			{
-				if(tentativeNodeDistance.get(index) < minimumDistance)
-				{
-					minimumDistance = tentativeNodeDistance.get(index);
-					minValIndex = index;
-				}
+				int middle = (start + end) >>> 1;
+				invokeAll(new FlowChartTask(graph, changes, sources, trees, start, middle),
+						new FlowChartTask(graph, changes, sources, trees, middle, end));
 			}
-					
-			// We now add this element to the permanent Flow Table
-			
-			shortestPathTreeRouterName.add(tentativeNodeName.get(minValIndex));
-			shortestPathTreeDistance.add(tentativeNodeDistance.get(minValIndex));
-			shortestPathOut.add(tentativePathOut.get(minValIndex));
-			
-			// The next step before we can continue on to the next iteration of this while-loop
-			// is to grab the last router that we just put on the permanent list out of our 
-			// ArrayList of allRouters, then add all of *this* routers connections to our tentative list. 
-			
-			String lastName = tentativeNodeName.get(minValIndex);
-			boolean valueChanged = false;
-			for(DirectConnectionsPerRouter iterationRouter : allRouters)
+			else if(end - start == 1)
 			{
-				if(iterationRouter.routerName.equals(lastName))
-				{
-					previousPermanentElement = iterationRouter;
-					valueChanged = true;
-					break;
-				}
+				IndexedMinHeap heap = WORKER_HEAPS.get();
+				if(trees[start] == null)
+					trees[start] = ShortestPathTree.compute(graph, sources[start], heap);
+				else if(trees[start].graph != graph)
+					trees[start].update(graph, changes, heap);
+				trees[start].getFlowChart();
 			}
-			
-			// If a router that is to be added to the tentative list is already on the tentative list,
-			// then we have to compare the distances and determine which is shorter.
-			
-			// First though, we need to correct the router Access (Path Out). Let's say that RouterReq is 
-			// connected to R2, and R2 to R3, and R3 to R4. If we are at a point that we are adding 
-			// R4 to the permanent shortest path list, RouterReq needs to know how to access R4, 
-			// i.e. which router it needs to forward packets to. So if we represented the routers 
-			// directly connected to RoutReq as [R2], and the access to R4 as [R3], then we need
-			// to switch [R3] with [R2]. This can be achieved by checking if the access value is
-			// in the array directlyConnectedRouters, that I briefly mentioned above. In other words,
-			// we need to find the access to R3, which would be R2, which is actually connected to R1.
-			// We declare the string pathOut, which will carry over each time.
-			
-			String pathOut = tentativePathOut.get(minValIndex);
-			
-			if(valueChanged)
-			{
-				for(DistancesBetweenRouters iterationRouter : previousPermanentElement.distances)
-				{
-					if(shortestPathTreeRouterName.contains(iterationRouter.toRouter))
-					{
-						// just a check to make sure that we aren't adding an element that is already
-						// on our permanent list back onto the tentative list.
-					}
-					else if(tentativeNodeName.contains(iterationRouter.toRouter))
-					{
-						int comparisonIndex = tentativeNodeName.indexOf(iterationRouter.toRouter);
-						if(tentativeNodeDistance.get(comparisonIndex) > (iterationRouter.distance + tentativeNodeDistance.get(minValIndex)))
-						{
-							// iterationRouter.distance + tentativeNodeDistance.get(minValIndex) is the sum of the distance between 
-							// the tentative element/previously permanent router and the distance between the previously permanent 
-							// router/RoutReq.
-							
-							tentativeNodeDistance.set(comparisonIndex, iterationRouter.distance + tentativeNodeDistance.get(minValIndex));
-							tentativePathOut.set(comparisonIndex, pathOut);
-						}
-						//else leave it alone
-					}
-					else	// if the router is not present on the tentative list
-					{
-						tentativeNodeName.add(iterationRouter.toRouter);
-						tentativeNodeDistance.add(iterationRouter.distance + tentativeNodeDistance.get(minValIndex));
-						tentativePathOut.add(pathOut);
-					}
-				}
-			}
-			
-			// Finally, remove the last element added to the permanent list from our tentative list,
-			// and continue on to the next iteration of our while-loop.
-			tentativeNodeName.remove(minValIndex);
-			tentativeNodeDistance.remove(minValIndex);
-			tentativePathOut.remove(minValIndex);
-			
 		}
+	}
+		
+	public String updateFlowChartForRouter(String routerName)
+	{
+		// This is my implementation of Djikstra's Algorithm. Starting from the router
+		// requesting a new flow table (RouterReq), routers are taken off a heap of tentative
+		// nodes closest first, and made permanent. Each time, the routers they are connected
+		// to are added to the heap, or moved up it if this is a shorter way of reaching them.
+		// As well as its distance, we keep track of the shortest path to each router (or more
+		// specifically, the router that RouterReq should forward on the packet to in order to
+		// reach this router). See ShortestPathTree.
+		
+		// The benefit of Djikstra's algorithm is that the controller does not have 
+		// to keep a overall preconfigured table of all the hosts and how to access them.
+		// We instead generate a flow table for each router that requires one, using the
+		// routers that we are aware of. 
+		
+		TopologyGraph currentGraph = getGraph();
+		int routerReq = currentGraph.indexOf(routerName);
+		
+		// If routerReq isn't registered at this point, then the router has not yet
+		// sent us their FeatureRequest, so there's not much we can do for them.
+		if(routerReq < 0 || !currentGraph.registered[routerReq]) return null;
+		
+		ShortestPathTree shortestPaths = shortestPathTrees.get(routerName);
+		if(shortestPaths == null)
+		{
+			shortestPaths = ShortestPathTree.compute(currentGraph, routerReq, heap);
+			shortestPathTrees.put(routerName, shortestPaths);
+		}
+		else if(shortestPaths.isFlowChartCurrent())
+			return shortestPaths.getFlowChart();
 		
 		// Once we have our flow table, we need to introduce the actual hosts, and then convert all of this
 		// into a form that the router can actually work with.
@@ -274,22 +400,34 @@ public class ControllerFlowTable {
 		//  H2		R3
 		//  H3		R2
 		
-		String finalFlowChartAsString = "";
-		
-		for(int i = 0; i < allHostNames.size(); i++)
-		{
-			String hostName = allHostNames.get(i);
-			String routerConnectedToHost = givenHostsRouter.get(i);
-			int indexOnFlowChart = shortestPathTreeRouterName.indexOf(routerConnectedToHost);
-			if(indexOnFlowChart < shortestPathOut.size() && indexOnFlowChart >= 0)
-				finalFlowChartAsString += hostName + shortestPathOut.get(indexOnFlowChart);
-		}
+		String finalFlowChartAsString = shortestPaths.getFlowChart();
 		
-		System.out.println("NEW FLOW TO " + routerReq.routerName + ": " + finalFlowChartAsString);
+		log.log(EventLog.Event.FLOW_CHART, "NEW FLOW TO " + routerName + ": " + finalFlowChartAsString);
 		return finalFlowChartAsString;
 	}
 	
+	// For a router that only needs to know how to reach one host. If we already have a tree for the
+	// router it is used as it is, since getGraph() has brought it up to date. Otherwise Dijkstra's
+	// algorithm is only run until it gets to the host's router, which for a nearby host is a small
+	// part of the network. If it ends up going through the whole network anyway (or we don't know
+	// the host), the tree is complete, and is kept like the ones updateFlowChartForRouter() makes.
+	// Returns null if the router hasn't sent us its FeatureReply yet.
+	public ShortestPathTree findPathsTowards(String routerName, String hostName)
+	{
+		TopologyGraph currentGraph = getGraph();
+		int routerReq = currentGraph.indexOf(routerName);
+		if(routerReq < 0 || !currentGraph.registered[routerReq]) return null;
+		
+		ShortestPathTree shortestPaths = shortestPathTrees.get(routerName);
+		if(shortestPaths != null) return shortestPaths;
+		
+		int hostRouter = currentGraph.routerOfHost(hostName);
+		if(hostRouter < 0)
+			shortestPaths = ShortestPathTree.compute(currentGraph, routerReq, heap);
+		else
+			shortestPaths = ShortestPathTree.computeTowards(currentGraph, routerReq, hostRouter, heap);
+		if(shortestPaths.complete) shortestPathTrees.put(routerName, shortestPaths);
+		return shortestPaths;
+	}
+	
 }
-
-
- 
@@ -0,0 +1,92 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * ControllerStatistics class
+ *
+ * The Controller's side of the flow requests (each of its links to a router has its own
+ * LinkStatistics too). The packets received and sent of each type come from the counts the
+ * Controller keeps anyway (see Controller.packetsReceived).
+ *
+ *   flowRequestsReceived			PACINs, including resyncs
+ *   resyncRequestsReceived			PACINs asking for the whole flow table, after a FLWDL didn't apply
+ *   flowModificationsSent			FLWMDs (whole flow tables)
+ *   flowDeltasSent					FLWDLs (only the changes)
+ *   packetsDroppedEgressQueueFull	packets for a router whose window and egress queue were both
+ *									full, which aren't counted as sent
+ *   flowComputations				how long working out the shortest paths for flow tables took, each
+ *									time it was done: for one router, a batch of requests, or every
+ *									router at once
+ */
+public class ControllerStatistics implements ControllerStatisticsMBean {
+	final LongAdder resyncRequestsReceived = new LongAdder();
+	final LongAdder packetsDroppedEgressQueueFull = new LongAdder();
+	final LatencyHistogram flowComputationTimes = new LatencyHistogram();
+
+	private final Controller controller;
+
+	ControllerStatistics(Controller controller)
+	{
+		this.controller = controller;
+	}
+
+	public int getRoutersConnected()
+	{
+		return controller.connectedRouters.size();
+	}
+
+	public long getFeatureRepliesReceived()
+	{
+		return controller.packetsReceived.get(ContentType.FETRP.ordinal());
+	}
+
+	public long getFlowRequestsReceived()
+	{
+		return controller.packetsReceived.get(ContentType.PACIN.ordinal());
+	}
+
+	public long getResyncRequestsReceived()
+	{
+		return resyncRequestsReceived.sum();
+	}
+
+	public long getFlowModificationsSent()
+	{
+		return controller.packetsSent.get(ContentType.FLWMD.ordinal());
+	}
+
+	public long getFlowDeltasSent()
+	{
+		return controller.packetsSent.get(ContentType.FLWDL.ordinal());
+	}
+
+	public long getPacketsDroppedEgressQueueFull()
+	{
+		return packetsDroppedEgressQueueFull.sum();
+	}
+
+	public long getFlowComputations()
+	{
+		return flowComputationTimes.getCount();
+	}
+
+	public double getFlowComputationMeanMillis()
+	{
+		return flowComputationTimes.getMeanMillis();
+	}
+
+	public double getFlowComputationMedianMillis()
+	{
+		return flowComputationTimes.getPercentileMillis(50);
+	}
+
+	public double getFlowComputation99thPercentileMillis()
+	{
+		return flowComputationTimes.getPercentileMillis(99);
+	}
+
+	public double getFlowComputationMaxMillis()
+	{
+		return flowComputationTimes.getMaxMillis();
+	}
+}
@@ -0,0 +1,21 @@
+/**
+ *
+ * ControllerStatisticsMBean interface
+ *
+ * What ControllerStatistics shows over JMX (see Metrics).
+ */
+public interface ControllerStatisticsMBean {
+	int getRoutersConnected();
+	long getFeatureRepliesReceived();
+	long getFlowRequestsReceived();
+	long getResyncRequestsReceived();
+	long getFlowModificationsSent();
+	long getFlowDeltasSent();
+	long getPacketsDroppedEgressQueueFull();
+
+	long getFlowComputations();
+	double getFlowComputationMeanMillis();
+	double getFlowComputationMedianMillis();
+	double getFlowComputation99thPercentileMillis();
+	double getFlowComputationMaxMillis();
+}
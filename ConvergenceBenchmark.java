@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ *
+ * ConvergenceBenchmark class
+ *
+ * Generates a network with TopologyGenerator, starts it as a Simulation, and reports:
+ *
+ *   registered		how long until every router has sent the Controller its FeatureReply, and
+ *					every host has been told by its router that it is connected
+ *   converged		how long until every router's flow table has a route to every host. Routers
+ *					only ask for flow tables when they have packets they can't forward, so without
+ *					-Dcontroller.proactiveFlows=true this is only checked while the traffic is being
+ *					sent, and may not happen at all.
+ *   packets		how many of each type of packet the Controller was sent and sent out
+ *   latency		once registered, every host sends benchmark.packetsPerHost packets to other hosts
+ *					picked at random, and the time from each being sent to it being delivered is
+ *					measured. The first packets to a host include the time to get a flow table.
+ *
+ *	java ConvergenceBenchmark KIND ROUTERS [HOSTS] [SEED]
+ *
+ * with KIND one of ring, grid, geometric or scalefree. Node logs go to standard output at level
+ * WARN unless log.level is set. Each stage gives up after benchmark.timeoutSeconds. For more
+ * than a few dozen nodes, use -Dnode.transport=channel.
+ */
+public class ConvergenceBenchmark implements Host.DeliveryListener {
+	static final int PACKETS_PER_HOST = Integer.getInteger("benchmark.packetsPerHost", 5);
+	static final long TIMEOUT_MILLIS = Long.getLong("benchmark.timeoutSeconds", 60) * 1000;
+	static final long POLL_MILLIS = 10;
+
+	private final Simulation simulation;
+	private final int[] hostIds;
+	private long startTime;
+	private int firstUnconvergedRouter;
+	private long convergedAt = -1;
+
+	// When each packet sent by the benchmark was sent, by its content, and how long the ones
+	// delivered so far took
+	private final ConcurrentHashMap<String, Long> sendTimes = new ConcurrentHashMap<String, Long>();
+	private final ArrayList<Long> latencies = new ArrayList<Long>();
+	private final AtomicInteger packetsSent = new AtomicInteger();
+
+	ConvergenceBenchmark(Simulation simulation)
+	{
+		this.simulation = simulation;
+		String[] hostNames = simulation.topology.getHostNames();
+		hostIds = new int[hostNames.length];
+		for(int i = 0; i < hostNames.length; i++) hostIds[i] = PacketCodec.nameToId(hostNames[i]);
+	}
+
+	private boolean isRegistered()
+	{
+		long featureReplies = simulation.controller.packetsReceived.get(ContentType.FETRP.ordinal());
+		if(featureReplies < simulation.routers.size()) return false;
+		for(Host host : simulation.hosts)
+			if(!host.connectionToNetworkEstablished) return false;
+		return true;
+	}
+
+	// Routers that have a route to every host stay that way (hosts never leave), so they are only
+	// checked until they do
+	private boolean isConverged()
+	{
+		while(firstUnconvergedRouter < simulation.routers.size())
+		{
+			RouterFlowTable.Snapshot flowTable = simulation.routers.get(firstUnconvergedRouter).routerFlowTable.getSnapshot();
+			for(int hostId : hostIds)
+				if(!flowTable.isDestinationHostKnown(hostId)) return false;
+			firstUnconvergedRouter++;
+		}
+		return true;
+	}
+
+	// Convergence is checked as well while the traffic is being sent, if it hadn't happened before
+	private boolean isTrafficDelivered()
+	{
+		if(convergedAt < 0 && isConverged()) convergedAt = millisSinceStart();
+		synchronized(this)
+		{
+			return latencies.size() == packetsSent.get();
+		}
+	}
+
+	public void onDelivered(Host host, SNDContent packet)
+	{
+		Long sendTime = sendTimes.remove(packet.getPacketContent());
+		if(sendTime == null) return;
+		long latency = System.nanoTime() - sendTime;
+		synchronized(this)
+		{
+			latencies.add(latency);
+		}
+	}
+
+	private void sendTraffic(Random random)
+	{
+		String[] hostNames = simulation.topology.getHostNames();
+		if(hostNames.length < 2) return;
+		for(int packet = 0; packet < PACKETS_PER_HOST; packet++)
+		{
+			for(Host host : simulation.hosts)
+			{
+				String hostToSendTo;
+				do {
+					hostToSendTo = hostNames[random.nextInt(hostNames.length)];
+				} while(hostToSendTo.equals(host.hostName));
+				String content = "B" + packetsSent.incrementAndGet();
+				sendTimes.put(content, System.nanoTime());
+				host.sendString(hostToSendTo, content);
+			}
+		}
+	}
+
+	// Returns how long after the start the condition became true, in milliseconds, or -1 if it
+	// didn't within the timeout
+	private long waitFor(BooleanSupplier condition) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TIMEOUT_MILLIS * 1000000L;
+		while(!condition.getAsBoolean())
+		{
+			if(System.nanoTime() > deadline) return -1;
+			Thread.sleep(POLL_MILLIS);
+		}
+		return millisSinceStart();
+	}
+
+	private long millisSinceStart()
+	{
+		return (System.nanoTime() - startTime) / 1000000L;
+	}
+
+	void run(String kind, long seed) throws InterruptedException
+	{
+		startTime = System.nanoTime();
+		simulation.start();
+		for(Host host : simulation.hosts)
+		{
+			host.stopSendingRandomly();
+			host.deliveryListener = this;
+		}
+
+		Topology topology = simulation.topology;
+		System.out.println("Topology: " + kind + ", " + topology.getRouterCount() + " routers, "
+				+ simulation.hosts.size() + " hosts, " + topology.links.size() + " links");
+
+		long registeredAt = waitFor(this::isRegistered);
+		System.out.println("Registered: " + describeTime(registeredAt));
+		if(Controller.PROACTIVE_FLOWS)
+			convergedAt = waitFor(this::isConverged);
+
+		long trafficStart = System.nanoTime();
+		sendTraffic(new Random(seed));
+		long deliveredAt = waitFor(this::isTrafficDelivered);
+		if(convergedAt < 0 && !Controller.PROACTIVE_FLOWS)
+			System.out.println("Converged: not by the time the traffic was delivered (routers only ask for the routes they need)");
+		else
+			System.out.println("Converged: " + describeTime(convergedAt));
+		System.out.println("Traffic delivered: " + ((deliveredAt < 0) ? "not all" :
+				(System.nanoTime() - trafficStart) / 1000000L + " ms after it was sent"));
+
+		System.out.println("Controller received: " + describeCounts(simulation.controller.packetsReceived));
+		System.out.println("Controller sent: " + describeCounts(simulation.controller.packetsSent));
+
+		long[] sorted;
+		synchronized(this)
+		{
+			sorted = new long[latencies.size()];
+			for(int i = 0; i < sorted.length; i++) sorted[i] = latencies.get(i);
+		}
+		Arrays.sort(sorted);
+		System.out.println("Packets delivered: " + sorted.length + " of " + packetsSent.get());
+		if(sorted.length > 0)
+		{
+			System.out.println("Latency (ms): min " + millis(sorted[0]) + ", median " + millis(percentile(sorted, 50))
+					+ ", 90% " + millis(percentile(sorted, 90)) + ", 99% " + millis(percentile(sorted, 99))
+					+ ", max " + millis(sorted[sorted.length - 1]));
+		}
+	}
+
+	private static String describeTime(long millisFromStart)
+	{
+		return (millisFromStart < 0) ? "not within " + TIMEOUT_MILLIS / 1000 + " s" : millisFromStart + " ms";
+	}
+
+	private static String describeCounts(AtomicLongArray counts)
+	{
+		StringBuilder description = new StringBuilder();
+		for(ContentType type : ContentType.values())
+		{
+			if(description.length() > 0) description.append(", ");
+			description.append(type).append(' ').append(counts.get(type.ordinal()));
+		}
+		return description.toString();
+	}
+
+	private static long percentile(long[] sorted, int percent)
+	{
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percent / 100.0) - 1)];
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format("%.2f", nanos / 1000000.0);
+	}
+
+	public static void main(String[] args) {
+		try {
+			String kind = args[0];
+			int routers = Integer.parseInt(args[1]);
+			int hosts = (args.length > 2) ? Integer.parseInt(args[2]) : routers;
+			long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+
+			Topology topology = TopologyGenerator.generate(kind, routers, hosts, seed);
+			Simulation simulation = new Simulation(topology, EventLog.openConsole(EventLog.Level.WARN), Simulation.BASE_PORT);
+			new ConvergenceBenchmark(simulation).run(kind, seed);
+		} catch(java.lang.Exception e) { e.printStackTrace(); }
+		System.exit(0);
+	}
+}
@@ -0,0 +1,195 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tcdIO.*;
+
+/**
+ *
+ * EventLog class
+ *
+ * Where a node reports what it is doing. Printing straight to a Terminal for every packet meant
+ * a router could only forward packets as fast as the window could draw them, so instead lines are
+ * put in a ring buffer, and a background thread takes them out and writes them to each LogSink.
+ * If the buffer is full the line is dropped rather than holding up the node, and the number
+ * dropped is written out once there is room again.
+ *
+ * Every line is one kind of Event, and each kind has a Level. Lines below log.level aren't
+ * logged at all, and log.sample.EVENT_NAME=N logs only one in every N of that kind. For the
+ * events sent for every packet, check isLogged() before building the line, so that a line that
+ * won't be logged doesn't cost a string concatenation:
+ *
+ *	if(log.isLogged(EventLog.Event.PACKET_FORWARDED))
+ *		log.write(routerName + ": Packet forwarded to " + ...);
+ *
+ *   node.headless			no Terminal window, the log goes to standard output instead
+ *   log.level				DEBUG (everything, the default), INFO, WARN or OFF
+ *   log.sample.EVENT_NAME	log one in every N of this kind of event
+ *   log.bufferSize			lines the ring buffer holds, rounded up to a power of two
+ */
+public class EventLog implements Runnable {
+	static final boolean HEADLESS = Boolean.getBoolean("node.headless");
+	static final int BUFFER_SIZE = Integer.getInteger("log.bufferSize", 8192);
+
+	enum Level { DEBUG, INFO, WARN, OFF }
+
+	enum Event {
+		PACKET_SENT(Level.DEBUG),			// a host sending a packet
+		PACKET_RECEIVED(Level.DEBUG),		// a packet arriving from a host
+		PACKET_FORWARDED(Level.DEBUG),
+		PACKET_DELIVERED(Level.DEBUG),		// to the host it was for
+		PACKET_DROPPED(Level.WARN),
+		FLOW_REQUEST(Level.INFO),
+		FLOW_UPDATE(Level.INFO),
+		FLOW_CHART(Level.DEBUG),			// the whole of a flow table the Controller has worked out
+		SETUP(Level.INFO);					// hellos, feature requests and replies
+
+		final Level level;
+
+		Event(Level level)
+		{
+			this.level = level;
+		}
+	}
+
+	private final LogSink[] sinks;
+	private final boolean[] enabled;
+	private final int[] sampleRates;
+	private final AtomicLongArray eventCounts;
+
+	// The ring buffer. head is the next line to write out, and tail the next free slot.
+	private final String[] ring;
+	private final int mask;
+	private long head;
+	private long tail;
+	private long droppedLines;
+	private boolean drainerWaiting;
+
+	EventLog(Level minimumLevel, int bufferSize, LogSink... sinks)
+	{
+		this.sinks = sinks;
+		Event[] events = Event.values();
+		enabled = new boolean[events.length];
+		sampleRates = new int[events.length];
+		eventCounts = new AtomicLongArray(events.length);
+		for(Event event : events)
+		{
+			enabled[event.ordinal()] = minimumLevel != Level.OFF && event.level.compareTo(minimumLevel) >= 0;
+			sampleRates[event.ordinal()] = Math.max(1, Integer.getInteger("log.sample." + event.name(), 1));
+		}
+
+		int capacity = 2;
+		while(capacity < bufferSize) capacity *= 2;
+		ring = new String[capacity];
+		mask = capacity - 1;
+
+		Thread drainer = new Thread(this, "EventLog");
+		drainer.setDaemon(true);
+		drainer.start();
+
+		// Whatever is still in the buffer when the node exits is written out first
+		Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "EventLog shutdown"));
+	}
+
+	// The log for a node started from the command line: a Terminal window with the given title,
+	// or standard output if running headless
+	static EventLog open(String title)
+	{
+		if(HEADLESS) return openConsole();
+		return new EventLog(configuredLevel(Level.DEBUG), BUFFER_SIZE, new TerminalLogSink(new Terminal(title)));
+	}
+	
+	// A log that goes to standard output, whether running headless or not
+	static EventLog openConsole()
+	{
+		return openConsole(Level.DEBUG);
+	}
+	
+	// defaultLevel is used if log.level isn't set
+	static EventLog openConsole(Level defaultLevel)
+	{
+		return new EventLog(configuredLevel(defaultLevel), BUFFER_SIZE,
+				new ConsoleLogSink(new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false)));
+	}
+	
+	private static Level configuredLevel(Level defaultLevel)
+	{
+		return Level.valueOf(System.getProperty("log.level", defaultLevel.name()).toUpperCase());
+	}
+
+	// True if this event should be logged, counting it towards its sample rate if it has one
+	public boolean isLogged(Event event)
+	{
+		int kind = event.ordinal();
+		if(!enabled[kind]) return false;
+		return sampleRates[kind] == 1 || eventCounts.getAndIncrement(kind) % sampleRates[kind] == 0;
+	}
+
+	// For events that aren't on the forwarding path, where building the line anyway is fine
+	public void log(Event event, String line)
+	{
+		if(isLogged(event)) write(line);
+	}
+
+	// Adds a line that has already passed isLogged()
+	public synchronized void write(String line)
+	{
+		if(tail - head == ring.length)
+		{
+			droppedLines++;
+			return;
+		}
+		ring[(int) (tail++ & mask)] = line;
+		if(drainerWaiting) this.notify();
+	}
+
+	public void run()
+	{
+		while(true)
+		{
+			synchronized(this)
+			{
+				while(head == tail)
+				{
+					drainerWaiting = true;
+					try {
+						this.wait();
+					} catch (InterruptedException e) { return; }
+				}
+				drainerWaiting = false;
+			}
+			drain();
+		}
+	}
+
+	// Takes every line out of the buffer while holding the lock, and writes them afterwards,
+	// so nodes adding lines are never kept waiting on a sink
+	private void drain()
+	{
+		ArrayList<String> lines = new ArrayList<String>();
+		long dropped;
+		synchronized(this)
+		{
+			while(head != tail)
+			{
+				int slot = (int) (head++ & mask);
+				lines.add(ring[slot]);
+				ring[slot] = null;
+			}
+			dropped = droppedLines;
+			droppedLines = 0;
+		}
+		synchronized(sinks)
+		{
+			for(LogSink sink : sinks)
+			{
+				for(String line : lines) sink.write(line);
+				if(dropped > 0) sink.write("(" + dropped + " log lines dropped, log buffer full)");
+				sink.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ *  The content of the two packets the Controller uses to update a router's flow table. Every
+ *  table the Controller sends a router has a version number, written as 8 hex digits, which
+ *  goes up by one each time.
+ *
+ *  FLWMD (the whole table):
+ *  [version][host1Name][routerToAccessHost1][host2Name][routerToAccessHost2]...
+ *
+ *  FLWDL (only what has changed since the router's current version):
+ *  [base version][new version][change][change]...
+ *  where each change is one of
+ *    A[hostName][routerToAccessHost]	- a host the router hasn't been told about before
+ *    M[hostName][routerToAccessHost]	- a host that is now reached through a different router
+ *    D[hostName]						- a host that can no longer be reached
+ *
+ *  A router only applies a FLWDL if its table is at the base version. Otherwise it sends
+ *  a PACIN with the content RESYNC, and the Controller replies with the whole table.
+ *
+ *  A router asking for a new table sends a PACIN with the host it is looking for as the
+ *  destination host, and empty content. The Controller may then only work out the route to
+ *  that host (and any closer ones), leaving the rest of the table as it was last sent.
+ */
+
+public final class FlowModification {
+	static final int VERSION_LENGTH = 8;
+	static final int ENTRY_LENGTH = 4;
+	static final String RESYNC = "RESYNC";
+
+	static final char ADD = 'A';
+	static final char MODIFY = 'M';
+	static final char DELETE = 'D';
+
+	private FlowModification() {}
+
+	static String versionToString(long version)
+	{
+		String hex = Long.toHexString(version & 0xFFFFFFFFL);
+		return "00000000".substring(hex.length()) + hex;
+	}
+
+	static long parseVersion(String content, int offset)
+	{
+		return Long.parseLong(content.substring(offset, offset + VERSION_LENGTH), 16);
+	}
+
+	static long nextVersion(long version)
+	{
+		return (version + 1) & 0xFFFFFFFFL;
+	}
+
+	static String encodeFullTable(long version, String entries)
+	{
+		return versionToString(version) + entries;
+	}
+
+	// Splits [hostName][routerToAccessHost]... into host -> router, keeping the order
+	static LinkedHashMap<String, String> parseEntries(String entries, int offset)
+	{
+		LinkedHashMap<String, String> table = new LinkedHashMap<String, String>();
+		for(int i = offset; i + ENTRY_LENGTH <= entries.length(); i = i + ENTRY_LENGTH)
+			table.put(entries.substring(i, i+2), entries.substring(i+2, i+4));
+		return table;
+	}
+
+	// The other way round from parseEntries()
+	static String encodeEntries(Map<String, String> table)
+	{
+		StringBuilder entries = new StringBuilder();
+		for(Map.Entry<String, String> entry : table.entrySet())
+			entries.append(entry.getKey()).append(entry.getValue());
+		return entries.toString();
+	}
+
+	// Works out the changes that turn oldTable into newTable
+	static String encodeDelta(long baseVersion, long newVersion, Map<String, String> oldTable, Map<String, String> newTable)
+	{
+		StringBuilder delta = new StringBuilder(versionToString(baseVersion)).append(versionToString(newVersion));
+		for(Map.Entry<String, String> entry : newTable.entrySet())
+		{
+			String oldRouter = oldTable.get(entry.getKey());
+			if(oldRouter == null)
+				delta.append(ADD).append(entry.getKey()).append(entry.getValue());
+			else if(!oldRouter.equals(entry.getValue()))
+				delta.append(MODIFY).append(entry.getKey()).append(entry.getValue());
+		}
+		for(String hostName : oldTable.keySet())
+		{
+			if(!newTable.containsKey(hostName))
+				delta.append(DELETE).append(hostName);
+		}
+		return delta.toString();
+	}
+}
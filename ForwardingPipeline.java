@@ -0,0 +1,79 @@
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ *
+ * ForwardingPipeline class
+ *
+ * Splits a router's work into stages so it isn't all done on the one thread that receives
+ * packets. The receive stage (Router.onReceipt) still decodes each packet, deals with ACKs,
+ * sends our own ACK back and handles anything from the Controller, but data packets from
+ * hosts and other routers are handed over to one of several forwarding workers, which look
+ * up the flow table and pass the packet on to the next hop. Each neighbour's NodeData is then
+ * the egress stage, with its own lock, window and queue, so workers sending to different
+ * neighbours don't get in each other's way.
+ *
+ * Packets are shared out by destination host, so every packet for a given host always goes
+ * through the same worker, in the order it was received, and is never overtaken by a later
+ * one. Each worker has a bounded queue, and if it fills up the receive stage waits for space
+ * rather than dropping packets that have already been ACKed.
+ *
+ *   router.forwardingWorkers	 number of worker threads, 0 to forward on the receive thread as before
+ *   router.forwardingQueueSize	 packets each worker can have waiting
+ */
+public class ForwardingPipeline {
+	static final int WORKERS = Integer.getInteger("router.forwardingWorkers", 0);
+	static final int QUEUE_CAPACITY = Integer.getInteger("router.forwardingQueueSize", 1024);
+
+	private final Router router;
+	private final Worker[] workers;
+
+	ForwardingPipeline(Router router, int workerCount, int queueCapacity)
+	{
+		this.router = router;
+		workers = new Worker[workerCount];
+		for(int i = 0; i < workerCount; i++)
+		{
+			workers[i] = new Worker(i, queueCapacity);
+			workers[i].start();
+		}
+	}
+
+	// Called on the receive thread. Waits if the worker for this destination is full.
+	public void dispatch(SNDContent packet)
+	{
+		Worker worker = workers[Math.floorMod(packet.getDestinationHostID(), workers.length)];
+		try {
+			worker.queue.put(packet);
+		} catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+	}
+
+	/**
+	 *
+	 * Worker thread
+	 *
+	 * Takes packets off its queue one at a time and forwards them.
+	 */
+	class Worker extends Thread {
+		final ArrayBlockingQueue<SNDContent> queue;
+
+		Worker(int index, int queueCapacity)
+		{
+			super("ForwardingWorker-" + index);
+			queue = new ArrayBlockingQueue<SNDContent>(queueCapacity);
+			setDaemon(true);
+		}
+
+		public void run()
+		{
+			while(true)
+			{
+				try
+				{
+					router.forwardOrPark(queue.take());
+				}
+				catch (InterruptedException e) { return; }
+				catch (Exception e) { e.printStackTrace(); }
+			}
+		}
+	}
+}
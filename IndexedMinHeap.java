@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+/**
+ *
+ * IndexedMinHeap class
+ *
+ * A binary min-heap of node indexes (0 to capacity-1), ordered by an int key, that also
+ * remembers where each node is in the heap. That means a node's key can be lowered in
+ * O(log n) when a shorter path to it is found, instead of it being added a second time or
+ * the whole tentative list being searched for it. Ties go to the lower node index, so the
+ * same graph always gives the same paths.
+ */
+public final class IndexedMinHeap {
+	private int[] heap;			// node indexes, heap[0] has the smallest key
+	private int[] position;		// where each node is in heap, or -1 if it isn't
+	private int[] key;
+	private int size;
+
+	IndexedMinHeap(int capacity)
+	{
+		heap = new int[capacity];
+		key = new int[capacity];
+		position = new int[capacity];
+		Arrays.fill(position, -1);
+	}
+
+	// Grows the heap to hold nodes up to capacity-1, and empties it
+	void reset(int capacity)
+	{
+		if(capacity > position.length)
+		{
+			heap = new int[capacity];
+			key = new int[capacity];
+			position = new int[capacity];
+			Arrays.fill(position, -1);
+		}
+		else
+		{
+			for(int i = 0; i < size; i++) position[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	boolean contains(int node)
+	{
+		return position[node] >= 0;
+	}
+
+	// Adds the node, or lowers its key if it is already in the heap with a larger one
+	void insertOrDecrease(int node, int newKey)
+	{
+		int i = position[node];
+		if(i < 0)
+		{
+			i = size++;
+			heap[i] = node;
+			position[node] = i;
+		}
+		else if(newKey >= key[node])
+			return;
+		key[node] = newKey;
+		siftUp(i);
+	}
+
+	// Removes and returns the node with the smallest key
+	int poll()
+	{
+		int smallest = heap[0];
+		position[smallest] = -1;
+		size--;
+		if(size > 0)
+		{
+			heap[0] = heap[size];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		return smallest;
+	}
+
+	private boolean less(int a, int b)
+	{
+		return key[a] < key[b] || (key[a] == key[b] && a < b);
+	}
+
+	private void siftUp(int i)
+	{
+		int node = heap[i];
+		while(i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if(!less(node, heap[parent])) break;
+			heap[i] = heap[parent];
+			position[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = node;
+		position[node] = i;
+	}
+
+	private void siftDown(int i)
+	{
+		int node = heap[i];
+		while(true)
+		{
+			int child = 2 * i + 1;
+			if(child >= size) break;
+			if(child + 1 < size && less(heap[child + 1], heap[child])) child++;
+			if(!less(heap[child], node)) break;
+			heap[i] = heap[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = node;
+		position[node] = i;
+	}
+}
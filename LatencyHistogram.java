@@ -0,0 +1,74 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * LatencyHistogram class
+ *
+ * Counts how long something took, in buckets that each cover twice the range of the one before
+ * (under 1 microsecond, 1-2, 2-4, 4-8... up to over half an hour), so a percentile read from it
+ * is never out by more than a factor of two. Every bucket is a LongAdder, so threads recording at
+ * the same time each add to their own cell instead of fighting over one counter. Adding the
+ * cells up is left until someone reads it, which is only when it is looked at over JMX.
+ */
+public class LatencyHistogram {
+	static final int BUCKETS = 32;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	LatencyHistogram()
+	{
+		for(int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+	}
+
+	public void record(long nanos)
+	{
+		nanos = Math.max(0, nanos);
+		// Bucket 0 is under 1 microsecond, and bucket b from 2^(b-1) up to 2^b microseconds
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000));
+		buckets[bucket].increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	public long getCount()
+	{
+		long count = 0;
+		for(LongAdder bucket : buckets) count += bucket.sum();
+		return count;
+	}
+
+	public double getMeanMillis()
+	{
+		long count = getCount();
+		return (count == 0) ? 0 : totalNanos.sum() / 1000000.0 / count;
+	}
+
+	public double getMaxMillis()
+	{
+		return maxNanos.get() / 1000000.0;
+	}
+
+	// The top of the bucket the percentile falls in, or the largest time recorded if that is less
+	public double getPercentileMillis(double percent)
+	{
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		if(count == 0) return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(count * percent / 100));
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			rank -= counts[i];
+			if(rank <= 0) return Math.min((1L << i) / 1000.0, getMaxMillis());
+		}
+		return getMaxMillis();
+	}
+}
@@ -0,0 +1,141 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * LinkStatistics class
+ *
+ * Counts of what has happened on one link, kept by its NodeData. They are LongAdders, since the
+ * receive thread, the forwarding workers, the link thread and the RetransmissionScheduler can all
+ * be counting on the same link at once, and a LongAdder lets each of them add to its own cell.
+ *
+ *   packetsSent			SND packets sent for the first time
+ *   retransmissions		SND packets resent because their timeout ran out
+ *   packetsReceived		valid SND packets that arrived, including duplicates
+ *   duplicatePackets		packets that had already been received, which are only ACKed again
+ *   outOfOrderPackets		packets that arrived ahead of the one expected (dropped with Go-Back-N,
+ *							buffered with Selective Repeat)
+ *   windowFullStalls		packets that had to wait on the egress queue for space in the window
+ *   egressQueueDrops		packets dropped because the egress queue was full as well
+ *   oversizedPacketDrops	packets dropped because they wouldn't fit in a datagram
+ *   roundTripTimes			from each packet being sent to it being ACKed, for packets never resent
+ */
+public class LinkStatistics implements LinkStatisticsMBean {
+	final LongAdder packetsSent = new LongAdder();
+	final LongAdder retransmissions = new LongAdder();
+	final LongAdder packetsReceived = new LongAdder();
+	final LongAdder duplicatePackets = new LongAdder();
+	final LongAdder outOfOrderPackets = new LongAdder();
+	final LongAdder acksSent = new LongAdder();
+	final LongAdder acksReceived = new LongAdder();
+	final LongAdder windowFullStalls = new LongAdder();
+	final LongAdder egressQueueDrops = new LongAdder();
+	final LongAdder oversizedPacketDrops = new LongAdder();
+	final LatencyHistogram roundTripTimes = new LatencyHistogram();
+
+	private final NodeData link;
+
+	LinkStatistics(NodeData link)
+	{
+		this.link = link;
+	}
+
+	public long getPacketsSent()
+	{
+		return packetsSent.sum();
+	}
+
+	public long getRetransmissions()
+	{
+		return retransmissions.sum();
+	}
+
+	public long getPacketsReceived()
+	{
+		return packetsReceived.sum();
+	}
+
+	public long getDuplicatePackets()
+	{
+		return duplicatePackets.sum();
+	}
+
+	public long getOutOfOrderPackets()
+	{
+		return outOfOrderPackets.sum();
+	}
+
+	public long getACKsSent()
+	{
+		return acksSent.sum();
+	}
+
+	public long getACKsReceived()
+	{
+		return acksReceived.sum();
+	}
+
+	public long getWindowFullStalls()
+	{
+		return windowFullStalls.sum();
+	}
+
+	public long getEgressQueueDrops()
+	{
+		return egressQueueDrops.sum();
+	}
+
+	public long getOversizedPacketDrops()
+	{
+		return oversizedPacketDrops.sum();
+	}
+
+	public int getPacketsInFlight()
+	{
+		return link.getPacketsInFlight();
+	}
+
+	public int getEgressQueueLength()
+	{
+		return link.getQueuedPacketCount();
+	}
+
+	public long getRetransmissionTimeoutMillis()
+	{
+		return link.roundTrip.getTimeoutMillis();
+	}
+
+	public double getSmoothedRoundTripMillis()
+	{
+		return link.roundTrip.getSmoothedRTTMillis();
+	}
+
+	public long getRoundTripSamples()
+	{
+		return roundTripTimes.getCount();
+	}
+
+	public double getRoundTripMeanMillis()
+	{
+		return roundTripTimes.getMeanMillis();
+	}
+
+	public double getRoundTripMedianMillis()
+	{
+		return roundTripTimes.getPercentileMillis(50);
+	}
+
+	public double getRoundTrip90thPercentileMillis()
+	{
+		return roundTripTimes.getPercentileMillis(90);
+	}
+
+	public double getRoundTrip99thPercentileMillis()
+	{
+		return roundTripTimes.getPercentileMillis(99);
+	}
+
+	public double getRoundTripMaxMillis()
+	{
+		return roundTripTimes.getMaxMillis();
+	}
+}
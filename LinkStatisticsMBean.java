@@ -0,0 +1,30 @@
+/**
+ *
+ * LinkStatisticsMBean interface
+ *
+ * What LinkStatistics shows over JMX, for one link (see Metrics).
+ */
+public interface LinkStatisticsMBean {
+	long getPacketsSent();
+	long getRetransmissions();
+	long getPacketsReceived();
+	long getDuplicatePackets();
+	long getOutOfOrderPackets();
+	long getACKsSent();
+	long getACKsReceived();
+	long getWindowFullStalls();
+	long getEgressQueueDrops();
+	long getOversizedPacketDrops();
+
+	int getPacketsInFlight();
+	int getEgressQueueLength();
+	long getRetransmissionTimeoutMillis();
+	double getSmoothedRoundTripMillis();
+
+	long getRoundTripSamples();
+	double getRoundTripMeanMillis();
+	double getRoundTripMedianMillis();
+	double getRoundTrip90thPercentileMillis();
+	double getRoundTrip99thPercentileMillis();
+	double getRoundTripMaxMillis();
+}
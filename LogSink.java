@@ -0,0 +1,10 @@
+/*
+ *  Somewhere the lines an EventLog is given end up. Only ever called on the EventLog's own
+ *  thread, one line at a time, with flush() after each batch of lines.
+ */
+
+public interface LogSink {
+	void write(String line);
+
+	void flush();
+}
@@ -0,0 +1,58 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *
+ * Metrics class
+ *
+ * Registers each node's statistics as MBeans on the platform MBean server, so they can be watched
+ * with jconsole or VisualVM (or anything else that reads JMX) while the network is running:
+ *
+ *   openflow:type=Link,node=NODE,link=NEIGHBOUR	LinkStatistics for one of a node's links
+ *   openflow:type=Router,node=NODE					RouterStatistics
+ *   openflow:type=Controller,node=Controller		ControllerStatistics
+ *
+ * The Host's one link is to "ROUTER", and each Router's link to the Controller is "CONTROLLER".
+ * In a Simulation every node is in the same JVM, and is registered under its own name. To look
+ * at a node started on its own from another machine, start it with the usual
+ * -Dcom.sun.management.jmxremote options.
+ *
+ *   metrics.jmx	false to not register anything (the counts are kept either way)
+ */
+public class Metrics {
+	static final boolean JMX = Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"));
+	static final String DOMAIN = "openflow";
+
+	private Metrics() {}
+
+	static void registerLink(String nodeName, NodeData link)
+	{
+		register("type=Link,node=" + ObjectName.quote(nodeName) + ",link=" + ObjectName.quote(link.getNodeName()), link.statistics);
+	}
+
+	static void registerNode(String type, String nodeName, Object statistics)
+	{
+		register("type=" + type + ",node=" + ObjectName.quote(nodeName), statistics);
+	}
+
+	// A node started again under the same name (or a router that has reconnected to the
+	// Controller) replaces what was registered before
+	private static void register(String properties, Object mbean)
+	{
+		if(!JMX) return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			try {
+				server.registerMBean(mbean, name);
+			} catch (InstanceAlreadyExistsException e) {
+				server.unregisterMBean(name);
+				server.registerMBean(mbean, name);
+			}
+		} catch (JMException e) { e.printStackTrace(); }
+	}
+}
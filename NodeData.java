@@ -1,28 +1,81 @@
+import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.util.Timer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 public class NodeData extends Thread{
+	// The ARQ mode and sequence space are set once for the whole process, and every node on the
+	// network has to be started with the same values, e.g. -Darq.mode=SR -Darq.sequenceBits=16
+	//   arq.mode			GBN (Go-Back-N, the default) or SR (Selective Repeat)
+	//   arq.sequenceBits	size of the packet number space, 2 to 31 bits (default 4, i.e. 0-15)
+	//   arq.windowSize		packets in flight per link, capped at what the mode allows
+	//   arq.egressQueueLimit	packets that can wait for space in the window before new ones are dropped
+	static final boolean SELECTIVE_REPEAT = "SR".equalsIgnoreCase(System.getProperty("arq.mode", "GBN"));
+	static final int SEQUENCE_BITS = Math.max(2, Math.min(31, Integer.getInteger("arq.sequenceBits", 4)));
+	static final int SEQUENCE_MASK = (int) ((1L << SEQUENCE_BITS) - 1);
+	static final int WINDOW_SIZE = windowSize();
+	static final int MAX_SACK_BLOCKS = 4;
+	static final int EGRESS_QUEUE_LIMIT = Integer.getInteger("arq.egressQueueLimit", 4096);
+
 	private final String nodeName;
 	private final String nodeType; // Host, Router, or Controller
 	private final int dstPort;
-	private final DatagramSocket thisSocket;
+	private final Transport thisSocket;
 	private final InetSocketAddress dstAddress;
 	private int nextSentPackNum;		//keeping track of sender window	(from perspective of Broker)
 	private int nextExpectedPackNum;	//keeping track of receiver window	(from perspective of Broker)
 	public String nodeID;				//Node's name, e.g. H3 for a host, R5 for a router.
+
+	// Sender window. sendBase is the oldest packet number not yet ACKed, and its timer is
+	// held at sendWindow[sendBaseSlot]; the packets after it follow on around the ring.
+	TimerFlowControl[] sendWindow = new TimerFlowControl[WINDOW_SIZE];
+	int sendBase = 0;
+	int sendBaseSlot = 0;
+	int sendWindowSize = 0;
+	
+	// Packets waiting for space in the sender window. They are given their packet number
+	// when they actually go out, which is as soon as an ACK frees up a slot.
+	private final ArrayDeque<SNDContent> egressQueue = new ArrayDeque<SNDContent>();
+
+	// Retransmission timeout for this link, worked out from the round trip times measured on it
+	final RoundTripEstimator roundTrip = new RoundTripEstimator();
 	
-	public Timer[] goBackNWindow = new Timer[16];
-	int goBackNWindowSize = 0;
+	// What has happened on this link, which the node it belongs to can register with Metrics
+	final LinkStatistics statistics = new LinkStatistics(this);
+
+	// Receiver reorder buffer (Selective Repeat only). Packets that arrive ahead of
+	// nextExpectedPackNum are held here until the gap before them has been filled.
+	private final SNDContent[] reorderBuffer = SELECTIVE_REPEAT ? new SNDContent[WINDOW_SIZE] : null;
+	private int reorderBaseSlot = 0;
+	private int reorderBufferCount = 0;
+	private final ArrayList<SNDContent> inOrderPackets = new ArrayList<SNDContent>();
+	private final int[] sackBlocks = new int[MAX_SACK_BLOCKS * 2];
+
 	int distanceToThisRouter;
 
+	// Link thread mode (see startLinkThread()). The node's own thread takes everything received
+	// from this node off inbox, and everything to be sent to it off outbox, so it is the only
+	// thread that ever touches the windows. Other threads just add to the queues and unpark it.
+	private volatile Thread linkThread;
+	private LinkHandler linkHandler;
+	private final ConcurrentLinkedQueue<Object> inbox = new ConcurrentLinkedQueue<Object>();		// ACKContent or SNDContent
+	private final ConcurrentLinkedQueue<SNDContent> outbox = new ConcurrentLinkedQueue<SNDContent>();
+
+	// Whoever owns this link, to be given each packet received on it once it is in order
+	interface LinkHandler {
+		void onLinkPacket(NodeData link, SNDContent packet);
+	}
+
 	// This version of the NodeData class is a slightly reduced version of the one used in Assignment 1.
 	// This class will be used by Controller and Routers, and is used solely for communication between
-	// nodes. I decided to reuse the Go-Back-N model of my last assignment, as it will greatly 
-	// simplify setting up communication between nodes for this assignment.
+	// nodes. I decided to reuse the Go-Back-N model of my last assignment, as it will greatly
+	// simplify setting up communication between nodes for this assignment. On lossy links, where
+	// Go-Back-N ends up resending whole windows, Selective Repeat can be turned on instead.
 
-	NodeData(DatagramSocket thisSocket, int connectedNodePort, String nodeType, String nodeName, int distanceToThisRouter)		
+	NodeData(Transport thisSocket, int connectedNodePort, String nodeType, String nodeName, int distanceToThisRouter)
 	{
 		this.nodeName = nodeName;
 		this.nodeType = nodeType;
@@ -33,7 +86,22 @@ public class NodeData extends Thread{
 		this.distanceToThisRouter = distanceToThisRouter;
 		this.thisSocket = thisSocket;
 	}
-	
+
+	// Go-Back-N can have one less than the size of the sequence space in flight, Selective Repeat
+	// only half of it, or the receiver could mistake a resent packet for a new one.
+	private static int windowSize()
+	{
+		int maximumWindow = SELECTIVE_REPEAT ? (SEQUENCE_MASK + 1) / 2 : SEQUENCE_MASK;
+		int requestedWindow = Integer.getInteger("arq.windowSize", Math.min(maximumWindow, 1024));
+		return Math.max(1, Math.min(maximumWindow, requestedWindow));
+	}
+
+	// Distance from one packet number forward to another, allowing for wrap around
+	static int sequenceDistance(int from, int to)
+	{
+		return (to - from) & SEQUENCE_MASK;
+	}
+
 	public String getNodeName() {
 		return nodeName;
 	}
@@ -45,53 +113,351 @@ public class NodeData extends Thread{
 	public InetSocketAddress getDstAddress() {
 		return dstAddress;
 	}
-	
+
 	public String getNodeType() {
 		return nodeType;
 	}
-	
+
 	public int getNextSentPackNum() {
 		return nextSentPackNum;
 	}
-	
-	public String getNextSentPackNumToString() {
-		return "" + ((nextSentPackNum < 10) ? "0" + nextSentPackNum : nextSentPackNum);
-	}
 
 	public int getNextExpectedPackNum() {
 		return nextExpectedPackNum;
 	}
-	
-	public String getNextExpectedPackNumToString() {
-		return "" + ((nextExpectedPackNum < 10) ? "0" + nextExpectedPackNum : nextExpectedPackNum);
+
+	public void incrementNextExpectedPackNum()
+	{
+		nextExpectedPackNum = (nextExpectedPackNum + 1) & SEQUENCE_MASK; // iterate nextSentPackNum
 	}
-	
-	public void incrementNextExpectedPackNum() 
+
+	/*
+	 * receivePacket() is called for every valid SND packet that comes in from this node. It returns
+	 * the packets that can now be processed, in order: with Go-Back-N that is just this packet if it
+	 * was the one we expected, but with Selective Repeat a packet that fills a gap also releases the
+	 * packets that were buffered behind it. The list returned is reused on the next call.
+	 */
+	public synchronized ArrayList<SNDContent> receivePacket(SNDContent receivedPacket)
 	{
-		nextExpectedPackNum = (nextExpectedPackNum + 1) % 16; // iterate nextSentPackNum
+		inOrderPackets.clear();
+		statistics.packetsReceived.increment();
+		int offset = sequenceDistance(nextExpectedPackNum, receivedPacket.getPacketNumber());
+
+		if(!SELECTIVE_REPEAT)
+		{
+			if(offset == 0)
+			{
+				incrementNextExpectedPackNum();
+				inOrderPackets.add(receivedPacket);
+			}
+			else if(offset < WINDOW_SIZE)
+				statistics.outOfOrderPackets.increment();
+			else
+				statistics.duplicatePackets.increment();
+			return inOrderPackets;
+		}
+
+		// Anything outside the receive window has already been delivered, and is only ACKed again
+		if(offset >= WINDOW_SIZE)
+			statistics.duplicatePackets.increment();
+		else
+		{
+			int slot = (reorderBaseSlot + offset) % WINDOW_SIZE;
+			if(reorderBuffer[slot] == null)
+			{
+				reorderBuffer[slot] = receivedPacket;
+				reorderBufferCount++;
+				if(offset > 0) statistics.outOfOrderPackets.increment();
+			}
+			else
+				statistics.duplicatePackets.increment();
+
+			while(reorderBuffer[reorderBaseSlot] != null)
+			{
+				inOrderPackets.add(reorderBuffer[reorderBaseSlot]);
+				reorderBuffer[reorderBaseSlot] = null;
+				reorderBufferCount--;
+				reorderBaseSlot = (reorderBaseSlot + 1) % WINDOW_SIZE;
+				incrementNextExpectedPackNum();
+			}
+		}
+		return inOrderPackets;
 	}
-	
-	public void sendPacket(SNDContent PacketContentToSend) {
-		// always one element on the goBackNWindow that is null.
-		while (goBackNWindowSize >= 15) 
+
+	// The ACK for this node always carries the next packet number we expect. With Selective Repeat
+	// it also lists the ranges of packets after that which we have already buffered (SACK blocks),
+	// so the sender doesn't need to resend them.
+	public synchronized ACKContent createACK()
+	{
+		statistics.acksSent.increment();
+		int blockCount = 0;
+		if(SELECTIVE_REPEAT && reorderBufferCount > 0)
 		{
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException e) { e.printStackTrace(); }
+			int found = 0;
+			int blockStart = -1;
+			for(int offset = 1; offset < WINDOW_SIZE && found < reorderBufferCount; offset++)
+			{
+				boolean buffered = reorderBuffer[(reorderBaseSlot + offset) % WINDOW_SIZE] != null;
+				if(buffered)
+				{
+					found++;
+					if(blockStart < 0) blockStart = offset;
+				}
+				if(blockStart >= 0 && (!buffered || found == reorderBufferCount))
+				{
+					int blockEnd = buffered ? offset + 1 : offset;
+					sackBlocks[blockCount * 2] = (nextExpectedPackNum + blockStart) & SEQUENCE_MASK;
+					sackBlocks[blockCount * 2 + 1] = (nextExpectedPackNum + blockEnd) & SEQUENCE_MASK;
+					blockStart = -1;
+					if(++blockCount == MAX_SACK_BLOCKS) break;
+				}
+			}
 		}
-		
+		return new ACKContent(nextExpectedPackNum, sackBlocks, blockCount);
+	}
+
+	/*
+	 * sendPacket() never blocks. If the window is full (it can never be allowed to fill the whole
+	 * sequence space) the packet is put on this node's egress queue, and acceptACKs() sends it once
+	 * there is room. This used to sleep until the window had space, which could hold up the very
+	 * thread that was meant to be processing the ACKs. Returns false if the queue is full too, in
+	 * which case the packet is dropped, or if the packet is bigger than a datagram can be
+	 * (node.maxDatagramSize), since it could never be sent.
+	 * With a link thread running, packets from any other thread are passed to it through the
+	 * outbox instead, and if its egress queue is full the link thread drops them.
+	 */
+	public boolean sendPacket(SNDContent PacketContentToSend) {
+		if(PacketContentToSend.getEncodedLength() > Transport.PACKETSIZE)
+		{
+			statistics.oversizedPacketDrops.increment();
+			return false;
+		}
+		Thread owner = linkThread;
+		if(owner != null && owner != Thread.currentThread())
+		{
+			outbox.add(PacketContentToSend);
+			LockSupport.unpark(owner);
+			return true;
+		}
+		return queuePacket(PacketContentToSend);
+	}
+
+	private synchronized boolean queuePacket(SNDContent PacketContentToSend) {
+		if (sendWindowSize >= WINDOW_SIZE || !egressQueue.isEmpty())
+		{
+			if(egressQueue.size() >= EGRESS_QUEUE_LIMIT)
+			{
+				statistics.egressQueueDrops.increment();
+				return false;
+			}
+			statistics.windowFullStalls.increment();
+			egressQueue.add(PacketContentToSend);
+			return true;
+		}
+		transmit(PacketContentToSend);
+		return true;
+	}
+
+	// ACKs are typically only sent once, so we do not have to designate a timer
+	// to them, and we do not have to add them to our window.
+	public void sendACK() {
+		DatagramPacket ackPacket = createACK().toDatagramPacket();
+		ackPacket.setSocketAddress(dstAddress);
+		try {
+			thisSocket.send(ackPacket);
+		} catch (IOException e) { e.printStackTrace(); }
+	}
+
+	public synchronized int getQueuedPacketCount() {
+		return egressQueue.size();
+	}
+
+	public synchronized int getPacketsInFlight() {
+		return sendWindowSize;
+	}
+
+	private void transmit(SNDContent PacketContentToSend) {
 		// Reset packet number so it matches up with node's next expected packet number,
 		// and then create Datagram packet
 		PacketContentToSend.resetPacketNumber(nextSentPackNum);
 		DatagramPacket packetToSend = PacketContentToSend.toDatagramPacket();
 		packetToSend.setSocketAddress(dstAddress); // sets this node's dstAddress as the destination for this packet
+
+		// Send it now, and have it resent on the shared scheduler if it isn't ACKed in time
+		TimerFlowControl ARQ = new TimerFlowControl(thisSocket, packetToSend, roundTrip, statistics, this);
+		sendWindow[(sendBaseSlot + sendWindowSize) % WINDOW_SIZE] = ARQ;
+
+		nextSentPackNum = (nextSentPackNum + 1) & SEQUENCE_MASK; // iterate nextSentPackNum
+		sendWindowSize++;
+		statistics.packetsSent.increment();
+		ARQ.start();
+	}
+
+	public synchronized void acceptACKs(ACKContent ack) {
+		// The ACK number is the next packet the other node expects, so everything before it in
+		// our window has arrived. Cancel those timeouts and slide the window forward.
+		long ackedNanos = System.nanoTime();
+		TimerFlowControl roundTripSample = null;
+		statistics.acksReceived.increment();
 		
-		Timer packetTimer = new Timer(); // start new timer
-		TimerFlowControl ARQ = new TimerFlowControl(thisSocket, packetToSend);
-		packetTimer.schedule(ARQ, 100, 5000); // delay of 2 seconds, repeat every 2 seconds
-		goBackNWindow[nextSentPackNum] = packetTimer;
+		int acknowledged = sequenceDistance(sendBase, ack.getACKNumber());
+		if(acknowledged <= sendWindowSize)
+		{
+			for(int i = 0; i < acknowledged; i++)
+				roundTripSample = acknowledgeSlot((sendBaseSlot + i) % WINDOW_SIZE, roundTripSample);
+		}
+
+		// SACK blocks name packets further on that have been buffered by the receiver. They only
+		// stop those packets being resent; the window itself can't move past the gap yet.
+		for(int block = 0; block < ack.getSACKBlockCount(); block++)
+		{
+			int start = sequenceDistance(sendBase, ack.getSACKBlockStart(block));
+			int end = sequenceDistance(sendBase, ack.getSACKBlockEnd(block));
+			for(int offset = start; offset < end && offset < sendWindowSize; offset++)
+				roundTripSample = acknowledgeSlot((sendBaseSlot + offset) % WINDOW_SIZE, roundTripSample);
+		}
 		
-		nextSentPackNum = (nextSentPackNum + 1) % 16; // iterate nextSentPackNum
-		goBackNWindowSize++;
+		// The packets still waiting keep the timeouts they were sent with. Restarting the oldest
+		// one's timeout here (as TCP does) would hold up Go-Back-N, where the receiver has thrown
+		// away everything after a gap, so every packet behind a lost one would wait a whole fresh
+		// timeout in turn before being resent. If the timeout was backed off, though, the ones
+		// that were resent with the longer timeout are brought forward to the one we have now.
+		if(slideSendWindow() && roundTrip.windowAdvanced())
+		{
+			int version = roundTrip.getTimeoutVersion();
+			long timeoutMillis = roundTrip.getTimeoutMillis();
+			for(int i = 0; i < sendWindowSize; i++)
+				sendWindow[(sendBaseSlot + i) % WINDOW_SIZE].shortenTimeout(version, timeoutMillis);
+		}
+		
+		// Send whatever was waiting for the window to open
+		while(sendWindowSize < WINDOW_SIZE && !egressQueue.isEmpty())
+			transmit(egressQueue.poll());
+		
+		// One sample per ACK is enough, from the latest packet it covers that was never resent
+		if(roundTripSample != null)
+		{
+			roundTrip.addSample(roundTripSample.firstSentNanos, ackedNanos);
+			statistics.roundTripTimes.record(ackedNanos - roundTripSample.firstSentNanos);
+		}
+	}
+
+	// Called by a packet's TimerFlowControl each time it has timed out and been resent. With
+	// Go-Back-N the receiver has thrown away everything sent after that packet, so the rest of the
+	// window is resent straight away, in order, behind it. Left to their own timeouts, the packets
+	// sent as the window slid forward over the first resent ones would get there ahead of the
+	// rest, be thrown away in turn, and the same would happen again one timeout later.
+	synchronized void timedOut(TimerFlowControl packetTimer)
+	{
+		if(SELECTIVE_REPEAT) return;
+		boolean behindTimedOutPacket = false;
+		for(int i = 0; i < sendWindowSize; i++)
+		{
+			TimerFlowControl windowTimer = sendWindow[(sendBaseSlot + i) % WINDOW_SIZE];
+			if(behindTimedOutPacket) windowTimer.resend();
+			else behindTimedOutPacket = (windowTimer == packetTimer);
+		}
+	}
+
+	// ACKed packets stay in the window, marked as acknowledged, until it slides past them.
+	// Returns the packet to take a round trip sample from.
+	private TimerFlowControl acknowledgeSlot(int slot, TimerFlowControl roundTripSample)
+	{
+		TimerFlowControl packetTimer = sendWindow[slot];
+		if(packetTimer != null && packetTimer.acknowledge()) return packetTimer;
+		return roundTripSample;
+	}
+
+	// sendBase moves forward past every packet at the start of the window that has been ACKed.
+	// Returns true if it moved at all.
+	private boolean slideSendWindow()
+	{
+		int previousSendBase = sendBase;
+		while(sendWindowSize > 0 && sendWindow[sendBaseSlot] != null && sendWindow[sendBaseSlot].isAcknowledged())
+		{
+			sendWindow[sendBaseSlot] = null;
+			sendBaseSlot = (sendBaseSlot + 1) % WINDOW_SIZE;
+			sendBase = (sendBase + 1) & SEQUENCE_MASK;
+			sendWindowSize--;
+		}
+		return sendBase != previousSendBase;
+	}
+
+	/*
+	 * Gives this link a thread of its own, which handles ACKs, receiving, ACKing and sending for it
+	 * from then on, so a slow or lossy neighbour only holds up its own thread. On Java 21 and later
+	 * this is a virtual thread, so it costs next to nothing to have one per neighbour. On older
+	 * versions NodeData is started as the platform thread it has always extended.
+	 */
+	public void startLinkThread(LinkHandler linkHandler)
+	{
+		this.linkHandler = linkHandler;
+		Thread thread = newVirtualThread(this, "Link-" + nodeName);
+		if(thread == null)
+		{
+			setName("Link-" + nodeName);
+			setDaemon(true);
+			thread = this;
+		}
+		linkThread = thread;
+		thread.start();
+	}
+
+	public boolean hasLinkThread() {
+		return linkThread != null;
+	}
+
+	// Called on the receiving thread with a decoded ACKContent or SNDContent from this node
+	public void postReceived(Object receivedPacket)
+	{
+		inbox.add(receivedPacket);
+		LockSupport.unpark(linkThread);
+	}
+
+	// Thread.ofVirtual() only exists from Java 21 (or 19 with preview features turned on), so
+	// it's looked up by reflection, and null is returned if it isn't there
+	private static Thread newVirtualThread(Runnable task, String name)
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+			return (Thread) builderClass.getMethod("unstarted", Runnable.class).invoke(builder, task);
+		}
+		catch (Exception e) { return null; }
+	}
+
+	// The link thread. ACKs and received packets are dealt with before new packets are queued,
+	// since they may free up room in the window. It parks whenever both queues are empty.
+	public void run()
+	{
+		while(true)
+		{
+			try
+			{
+				Object received;
+				while((received = inbox.poll()) != null)
+				{
+					if(received instanceof ACKContent)
+						acceptACKs((ACKContent) received);
+					else
+					{
+						ArrayList<SNDContent> packets = receivePacket((SNDContent) received);
+						sendACK();
+						for(SNDContent inOrderPacket : packets)
+							linkHandler.onLinkPacket(this, inOrderPacket);
+					}
+				}
+
+				SNDContent outgoing;
+				while((outgoing = outbox.poll()) != null)
+					queuePacket(outgoing);
+			}
+			catch (Exception e) { e.printStackTrace(); }
+
+			if(inbox.isEmpty() && outbox.isEmpty())
+				LockSupport.park(this);
+		}
 	}
 }
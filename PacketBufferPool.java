@@ -0,0 +1,45 @@
+import java.net.DatagramPacket;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ *
+ * PacketBufferPool class
+ *
+ * A fixed number of receive packets, each with its own buffer of maxDatagramSize bytes,
+ * created once up front. The listener acquires one before each receive and releases it
+ * once onReceipt() has returned, so receiving a packet never allocates a new buffer.
+ * If every buffer is in use, acquire() waits until one is released rather than growing
+ * the pool.
+ */
+public class PacketBufferPool {
+	private final ArrayBlockingQueue<DatagramPacket> freePackets;
+	private final int maxDatagramSize;
+
+	PacketBufferPool(int numberOfBuffers, int maxDatagramSize)
+	{
+		this.maxDatagramSize = maxDatagramSize;
+		freePackets = new ArrayBlockingQueue<DatagramPacket>(numberOfBuffers);
+		for(int i = 0; i < numberOfBuffers; i++)
+			freePackets.add(new DatagramPacket(new byte[maxDatagramSize], maxDatagramSize));
+	}
+
+	public DatagramPacket acquire() throws InterruptedException
+	{
+		DatagramPacket packet = freePackets.poll();
+		if(packet == null) packet = freePackets.take();
+		return packet;
+	}
+
+	public void release(DatagramPacket packet)
+	{
+		// receive() shrinks the packet's length to the size of the last datagram, so it
+		// has to be set back to the full buffer before the packet can be reused.
+		packet.setLength(maxDatagramSize);
+		freePackets.offer(packet);
+	}
+
+	public int getMaxDatagramSize()
+	{
+		return maxDatagramSize;
+	}
+}
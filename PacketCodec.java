@@ -0,0 +1,141 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ *  Binary wire layout shared by SNDContent and ACKContent. Every field sits at a fixed
+ *  offset, so a received datagram can be read straight out of its buffer without first
+ *  turning the whole thing into a String.
+ *
+ *  SND packet:
+ *  [0]      Packet Type		- TYPE_SND
+ *  [1-4]    Packet Number		- int
+ *  [5]      Content Type		- ContentType ordinal
+ *  [6-7]    Source Host		- node id (see nameToId)
+ *  [8-9]    Destination Host	- node id
+ *  [10-11]  Content Length		- unsigned short
+ *  [12-..]  Content			- UTF-8 bytes
+ *
+ *  ACK packet:
+ *  [0]      Packet Type		- TYPE_ACK
+ *  [1-4]    Packet Number		- int, the next packet number the receiver expects
+ *  [5]      SACK Block Count	- only present in Selective Repeat mode
+ *  [6-..]   SACK Blocks		- int start, int end (exclusive) for each block
+ */
+
+public final class PacketCodec {
+	static final byte TYPE_SND = 1;
+	static final byte TYPE_ACK = 2;
+
+	static final int TYPE_OFFSET = 0;
+	static final int NUMBER_OFFSET = 1;
+	static final int CONTENT_TYPE_OFFSET = 5;
+	static final int SOURCE_OFFSET = 6;
+	static final int DESTINATION_OFFSET = 8;
+	static final int LENGTH_OFFSET = 10;
+
+	static final int ACK_LENGTH = 5;
+	static final int SACK_COUNT_OFFSET = 5;
+	static final int SACK_BLOCK_LENGTH = 8;
+	static final int SND_HEADER_LENGTH = 12;
+	static final int MAX_CONTENT_LENGTH = 0xFFFF;
+
+	private static final ContentType[] CONTENT_TYPES = ContentType.values();
+
+	private PacketCodec() {}
+
+	// Node names on this network are always one letter and one number (H3, R5, or "00" when
+	// there is no node), so the two ASCII characters fit exactly into a 16 bit id.
+
+	static int nameToId(String nodeName)
+	{
+		return ((nodeName.charAt(0) & 0xFF) << 8) | (nodeName.charAt(1) & 0xFF);
+	}
+
+	static String idToName(int nodeId)
+	{
+		return new String(new char[] { (char) ((nodeId >> 8) & 0xFF), (char) (nodeId & 0xFF) });
+	}
+
+	static byte packetType(ByteBuffer buffer)
+	{
+		if(buffer.remaining() < ACK_LENGTH) return 0;
+		return buffer.get(buffer.position() + TYPE_OFFSET);
+	}
+
+	static int packetNumber(ByteBuffer buffer)
+	{
+		return buffer.getInt(buffer.position() + NUMBER_OFFSET);
+	}
+
+	// Returns null if the byte is not a known content type, which marks the packet as invalid.
+	static ContentType contentType(ByteBuffer buffer)
+	{
+		int ordinal = buffer.get(buffer.position() + CONTENT_TYPE_OFFSET);
+		return (ordinal >= 0 && ordinal < CONTENT_TYPES.length) ? CONTENT_TYPES[ordinal] : null;
+	}
+
+	static int sourceId(ByteBuffer buffer)
+	{
+		return buffer.getShort(buffer.position() + SOURCE_OFFSET) & 0xFFFF;
+	}
+
+	static int destinationId(ByteBuffer buffer)
+	{
+		return buffer.getShort(buffer.position() + DESTINATION_OFFSET) & 0xFFFF;
+	}
+
+	static int contentLength(ByteBuffer buffer)
+	{
+		return buffer.getShort(buffer.position() + LENGTH_OFFSET) & 0xFFFF;
+	}
+
+	static void writeSND(ByteBuffer buffer, int packetNumber, ContentType contentType,
+			int sourceId, int destinationId, byte[] content)
+	{
+		buffer.put(TYPE_SND);
+		buffer.putInt(packetNumber);
+		buffer.put((byte) contentType.ordinal());
+		buffer.putShort((short) sourceId);
+		buffer.putShort((short) destinationId);
+		buffer.putShort((short) content.length);
+		buffer.put(content);
+	}
+
+	// SACK blocks are only read if the sender actually included them
+	static int sackBlockCount(ByteBuffer buffer)
+	{
+		if(buffer.remaining() <= SACK_COUNT_OFFSET) return 0;
+		int blockCount = buffer.get(buffer.position() + SACK_COUNT_OFFSET) & 0xFF;
+		return Math.min(blockCount, (buffer.remaining() - SACK_COUNT_OFFSET - 1) / SACK_BLOCK_LENGTH);
+	}
+
+	static int sackBlockEdge(ByteBuffer buffer, int edgeIndex)
+	{
+		return buffer.getInt(buffer.position() + SACK_COUNT_OFFSET + 1 + edgeIndex * 4);
+	}
+
+	static int ackLength(int sackBlockCount)
+	{
+		return sackBlockCount == 0 ? ACK_LENGTH : ACK_LENGTH + 1 + sackBlockCount * SACK_BLOCK_LENGTH;
+	}
+
+	static void writeACK(ByteBuffer buffer, int packetNumber, int[] sackBlocks, int sackBlockCount)
+	{
+		buffer.put(TYPE_ACK);
+		buffer.putInt(packetNumber);
+		if(sackBlockCount == 0) return;
+		buffer.put((byte) sackBlockCount);
+		for(int i = 0; i < sackBlockCount * 2; i++)
+			buffer.putInt(sackBlocks[i]);
+	}
+
+	static byte[] encodeContent(String content)
+	{
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	static String decodeContent(byte[] content)
+	{
+		return new String(content, StandardCharsets.UTF_8);
+	}
+}
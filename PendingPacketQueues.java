@@ -0,0 +1,201 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * PendingPacketQueues class
+ *
+ * The packets a router is holding on to because its flow table doesn't know their destination
+ * host yet. There is a queue for each destination, oldest packet first, so when a flow
+ * modification arrives only the destinations it has made known are looked at, and each of
+ * their queues is sent on as a whole, in order. Packets for hosts that are still unknown are
+ * left alone, rather than every waiting packet being checked again.
+ *
+ * There is a limit on how many packets are held for one host, and altogether, so a flood of
+ * packets for a host the Controller doesn't know about can't use up the router's memory.
+ * When a limit is reached, either the new packet or the oldest packet for that host is
+ * dropped. Packets are also dropped once they have been waiting for longer than their time
+ * to live, which is checked on the shared RetransmissionScheduler.
+ *
+ * Each queue also remembers when the Controller was last asked about its destination, so
+ * that a burst of packets for one unknown host is only one flow request, not one per packet.
+ * If the Controller's answer still doesn't have the host in it, the next packet for it asks
+ * again, but only once the last request is old enough.
+ *
+ *   router.pendingPerHost		packets held for any one destination host
+ *   router.pendingTotal		packets held for all destination hosts together
+ *   router.pendingDropPolicy	"newest" to drop the packet that doesn't fit, "oldest" to make room for it
+ *   router.pendingTTLMillis	how long a packet is held for before it is dropped, 0 to hold it until sent
+ *   router.flowRequestRetryMillis	how long to wait before asking the Controller about the same host again
+ *
+ * Every change to the queues is made holding this object's lock. Router also holds it while it
+ * sends a destination's queue on, so a new packet for that destination can't overtake them.
+ */
+public class PendingPacketQueues implements Runnable {
+	static final int PER_HOST_CAPACITY = Integer.getInteger("router.pendingPerHost", 256);
+	static final int TOTAL_CAPACITY = Integer.getInteger("router.pendingTotal", 4096);
+	static final boolean DROP_OLDEST = "oldest".equalsIgnoreCase(System.getProperty("router.pendingDropPolicy", "newest"));
+	static final long TTL_MILLIS = Long.getLong("router.pendingTTLMillis", 5000);
+	static final long REQUEST_RETRY_MILLIS = Long.getLong("router.flowRequestRetryMillis", 1000);
+
+	// Queues are only changed while holding the lock, but hasPackets() is checked without it
+	private final ConcurrentHashMap<Integer, DestinationQueue> queues = new ConcurrentHashMap<Integer, DestinationQueue>();
+	private final int perHostCapacity;
+	private final int totalCapacity;
+	private final boolean dropOldest;
+	private final long ttlNanos;
+	private final long retryNanos;
+	private int packetCount;
+	private long droppedPackets;
+	private long expiredPackets;
+	private RetransmissionScheduler.Timeout expiryTimeout;
+
+	PendingPacketQueues(int perHostCapacity, int totalCapacity, boolean dropOldest, long ttlMillis, long retryMillis)
+	{
+		this.perHostCapacity = perHostCapacity;
+		this.totalCapacity = totalCapacity;
+		this.dropOldest = dropOldest;
+		this.ttlNanos = ttlMillis * 1000000L;
+		this.retryNanos = retryMillis * 1000000L;
+	}
+
+	// Starts checking for packets that have been held too long, twice per time to live
+	public synchronized void start()
+	{
+		if(ttlNanos <= 0 || expiryTimeout != null) return;
+		long period = Math.max(RetransmissionScheduler.TICK_MILLIS, ttlNanos / 2000000L);
+		expiryTimeout = RetransmissionScheduler.getScheduler().schedule(this, period, period);
+	}
+
+	// Returns false if the packet was dropped because there was no room for it
+	public synchronized boolean hold(SNDContent packet)
+	{
+		int destinationHost = packet.getDestinationHostID();
+		DestinationQueue queue = queues.get(destinationHost);
+		int queueLength = (queue == null) ? 0 : queue.packets.size();
+		if(queueLength >= perHostCapacity || packetCount >= totalCapacity)
+		{
+			// The oldest packet can only make room if it is for the same host, as that is
+			// the only queue that this packet would be joining
+			if(!dropOldest || queueLength == 0)
+			{
+				droppedPackets++;
+				return false;
+			}
+			queue.packets.poll();
+			packetCount--;
+			droppedPackets++;
+		}
+		if(queue == null)
+		{
+			queue = new DestinationQueue();
+			queues.put(destinationHost, queue);
+		}
+		queue.packets.add(new PendingPacket(packet, System.nanoTime()));
+		packetCount++;
+		return true;
+	}
+	
+	// Returns true, and remembers that it has, if the Controller should be asked about this host.
+	// That is when packets are waiting for it and it either hasn't been asked yet, or not recently.
+	public synchronized boolean shouldRequestFlow(int destinationHost)
+	{
+		DestinationQueue queue = queues.get(destinationHost);
+		if(queue == null) return false;
+		long now = System.nanoTime();
+		if(queue.requested && now - queue.lastRequested < retryNanos) return false;
+		queue.requested = true;
+		queue.lastRequested = now;
+		return true;
+	}
+
+	// True if packets for this host are being held. A packet for it that arrives after the flow
+	// table has made it known still has to wait its turn behind them.
+	public boolean hasPackets(int destinationHost)
+	{
+		return queues.containsKey(destinationHost);
+	}
+
+	// Removes the queue of every destination the flow table now knows, and returns their
+	// packets, each destination's in the order they arrived. Packets held too long are dropped.
+	public synchronized ArrayList<SNDContent> removeKnown(RouterFlowTable.Snapshot flowTable)
+	{
+		ArrayList<SNDContent> knownPackets = new ArrayList<SNDContent>();
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Integer, DestinationQueue>> iterator = queues.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			Map.Entry<Integer, DestinationQueue> entry = iterator.next();
+			if(!flowTable.isDestinationHostKnown(entry.getKey())) continue;
+			iterator.remove();
+			for(PendingPacket pending : entry.getValue().packets)
+			{
+				packetCount--;
+				if(isExpired(pending, now))
+					expiredPackets++;
+				else
+					knownPackets.add(pending.packet);
+			}
+		}
+		return knownPackets;
+	}
+
+	// Run by the scheduler. The oldest packets are at the front of each queue, so only the
+	// front has to be looked at.
+	public synchronized void run()
+	{
+		long now = System.nanoTime();
+		Iterator<DestinationQueue> iterator = queues.values().iterator();
+		while(iterator.hasNext())
+		{
+			ArrayDeque<PendingPacket> packets = iterator.next().packets;
+			while(!packets.isEmpty() && isExpired(packets.peek(), now))
+			{
+				packets.poll();
+				packetCount--;
+				expiredPackets++;
+			}
+			if(packets.isEmpty()) iterator.remove();
+		}
+	}
+
+	private boolean isExpired(PendingPacket pending, long now)
+	{
+		return ttlNanos > 0 && now - pending.heldSince >= ttlNanos;
+	}
+
+	public synchronized int size()
+	{
+		return packetCount;
+	}
+
+	public synchronized long getDroppedPackets()
+	{
+		return droppedPackets;
+	}
+
+	public synchronized long getExpiredPackets()
+	{
+		return expiredPackets;
+	}
+
+	private static final class DestinationQueue {
+		final ArrayDeque<PendingPacket> packets = new ArrayDeque<PendingPacket>();
+		boolean requested;
+		long lastRequested;
+	}
+
+	private static final class PendingPacket {
+		final SNDContent packet;
+		final long heldSince;
+
+		PendingPacket(SNDContent packet, long heldSince)
+		{
+			this.packet = packet;
+			this.heldSince = heldSince;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ *
+ * RetransmissionScheduler class
+ *
+ * A hashed timing wheel shared by every node in the process. Previously each packet waiting
+ * on an ACK got its own java.util.Timer, which is a whole thread per packet in flight. Here
+ * there is a single thread that ticks around an array of buckets; a timeout is dropped into
+ * the bucket its deadline falls in, and only that bucket is looked at on each tick.
+ * Scheduling and cancelling are both O(1), since every bucket is a doubly linked list.
+ */
+public class RetransmissionScheduler {
+	static final long TICK_MILLIS = Long.getLong("arq.tickMillis", 10);
+	static final int WHEEL_SIZE = 512;	// must be a power of two
+
+	private static RetransmissionScheduler sharedScheduler;
+
+	private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	private final long startTime;
+	private long currentTick;
+	private final Thread workerThread;
+
+	/**
+	 * Handle for a scheduled task. Cancelling it unlinks it from its bucket straight away.
+	 */
+	public class Timeout {
+		final Runnable task;
+		final long period;
+		long deadlineTick;
+		Timeout previous;
+		Timeout next;
+		boolean scheduled;
+		boolean cancelled;
+
+		Timeout(Runnable task, long period)
+		{
+			this.task = task;
+			this.period = period;
+		}
+
+		public void cancel()
+		{
+			synchronized(RetransmissionScheduler.this)
+			{
+				cancelled = true;
+				if(scheduled) unlink(this);
+			}
+		}
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+	}
+
+	RetransmissionScheduler()
+	{
+		startTime = System.nanoTime();
+		workerThread = new Thread(this::run, "RetransmissionScheduler");
+		workerThread.setDaemon(true);
+		workerThread.start();
+	}
+
+	public static synchronized RetransmissionScheduler getScheduler()
+	{
+		if(sharedScheduler == null) sharedScheduler = new RetransmissionScheduler();
+		return sharedScheduler;
+	}
+
+	// Runs task after delay milliseconds, and then every period milliseconds until cancelled.
+	// A period of 0 runs the task only once.
+	public synchronized Timeout schedule(Runnable task, long delay, long period)
+	{
+		Timeout timeout = new Timeout(task, period);
+		insert(timeout, delay);
+		return timeout;
+	}
+
+	private void insert(Timeout timeout, long delay)
+	{
+		// Round up, so a task never runs earlier than it asked to
+		long ticks = Math.max(1, (delay + TICK_MILLIS - 1) / TICK_MILLIS);
+		timeout.deadlineTick = currentTick + ticks;
+		int bucket = (int) (timeout.deadlineTick & (WHEEL_SIZE - 1));
+		timeout.previous = null;
+		timeout.next = wheel[bucket];
+		if(wheel[bucket] != null) wheel[bucket].previous = timeout;
+		wheel[bucket] = timeout;
+		timeout.scheduled = true;
+	}
+
+	private void unlink(Timeout timeout)
+	{
+		int bucket = (int) (timeout.deadlineTick & (WHEEL_SIZE - 1));
+		if(timeout.previous != null) timeout.previous.next = timeout.next;
+		else wheel[bucket] = timeout.next;
+		if(timeout.next != null) timeout.next.previous = timeout.previous;
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.scheduled = false;
+	}
+
+	private void run()
+	{
+		while(true)
+		{
+			long nextTickTime = startTime + (currentTick + 1) * TICK_MILLIS * 1000000L;
+			long sleepNanos = nextTickTime - System.nanoTime();
+			if(sleepNanos > 0)
+			{
+				try {
+					Thread.sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+				} catch (InterruptedException e) { return; }
+			}
+
+			// Pull the expired timeouts out of this tick's bucket while holding the lock,
+			// but run them afterwards so a slow send never holds up scheduling/cancelling.
+			Timeout expired = null;
+			synchronized(this)
+			{
+				currentTick++;
+				int bucket = (int) (currentTick & (WHEEL_SIZE - 1));
+				Timeout timeout = wheel[bucket];
+				while(timeout != null)
+				{
+					Timeout next = timeout.next;
+					if(timeout.deadlineTick <= currentTick)
+					{
+						unlink(timeout);
+						timeout.next = expired;
+						expired = timeout;
+					}
+					timeout = next;
+				}
+			}
+
+			while(expired != null)
+			{
+				Timeout timeout = expired;
+				expired = timeout.next;
+				timeout.next = null;
+				if(timeout.cancelled) continue;
+				try {
+					timeout.task.run();
+				} catch (RuntimeException e) { e.printStackTrace(); }
+
+				synchronized(this)
+				{
+					if(timeout.period > 0 && !timeout.cancelled) insert(timeout, timeout.period);
+				}
+			}
+		}
+	}
+}
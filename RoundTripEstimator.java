@@ -0,0 +1,105 @@
+/**
+ *
+ * RoundTripEstimator class
+ *
+ * Works out the retransmission timeout for one link from the round trip times that are
+ * actually measured on it, the same way TCP does (RFC 6298). SRTT is a smoothed average
+ * of the samples and RTTVAR how much they vary, and the timeout is SRTT + 4 * RTTVAR.
+ *
+ * Only packets that were never resent give a sample (Karn's rule), since an ACK for a
+ * resent packet could be for any of its copies. Nor do packets sent before anything else
+ * on the link was resent: their ACK may have been held up behind the gap the resend filled. Each time packets have to be resent the
+ * timeout is doubled, and it stays backed off until an ACK moves the window forward again.
+ * With Go-Back-N everything behind a lost packet gets resent, so waiting for the next good
+ * sample instead could leave the timeout doubling round after round.
+ *
+ * The limits can be set on the command line, e.g. -Darq.minTimeoutMillis=5
+ */
+public class RoundTripEstimator {
+	static final long INITIAL_TIMEOUT_MILLIS = Long.getLong("arq.initialTimeoutMillis", 1000);
+	static final long MIN_TIMEOUT_MILLIS = Long.getLong("arq.minTimeoutMillis", 20);
+	static final long MAX_TIMEOUT_MILLIS = Long.getLong("arq.maxTimeoutMillis", 60000);
+
+	private double smoothedRTT;		// SRTT, in milliseconds
+	private double rttVariation;	// RTTVAR, in milliseconds
+	private boolean hasSample = false;
+	private long measuredTimeoutMillis = INITIAL_TIMEOUT_MILLIS;	// from the samples alone
+	private long timeoutMillis = INITIAL_TIMEOUT_MILLIS;			// including any back off
+	private int timeoutVersion = 0;									// changes whenever timeoutMillis does
+	private long lastResentNanos = System.nanoTime();				// nothing is sent before this anyway
+
+	public synchronized void addSample(long sentNanos, long ackedNanos)
+	{
+		if(sentNanos - lastResentNanos < 0) return;
+		double sample = (ackedNanos - sentNanos) / 1000000.0;
+		if(!hasSample)
+		{
+			smoothedRTT = sample;
+			rttVariation = sample / 2;
+			hasSample = true;
+		}
+		else
+		{
+			rttVariation = 0.75 * rttVariation + 0.25 * Math.abs(smoothedRTT - sample);
+			smoothedRTT = 0.875 * smoothedRTT + 0.125 * sample;
+		}
+
+		// The variation term can't be less than one tick of the retransmission scheduler
+		double variationTerm = Math.max(RetransmissionScheduler.TICK_MILLIS, 4 * rttVariation);
+		measuredTimeoutMillis = clamp((long) Math.ceil(smoothedRTT + variationTerm));
+		timeoutMillis = measuredTimeoutMillis;
+		timeoutVersion++;
+	}
+
+	// Called each time a packet on the link is resent
+	public synchronized void packetResent(long resentNanos)
+	{
+		lastResentNanos = resentNanos;
+	}
+
+	// Called when an ACK acknowledges packets we hadn't had ACKed before. Returns true if that
+	// brought the timeout back down from a backed off one.
+	public synchronized boolean windowAdvanced()
+	{
+		if(timeoutMillis == measuredTimeoutMillis) return false;
+		timeoutMillis = measuredTimeoutMillis;
+		timeoutVersion++;
+		return true;
+	}
+
+	// Called when a packet has timed out, having waited out the given version of the timeout;
+	// returns how long to wait before resending it again. The timeout is only doubled if it is
+	// still the one the packet waited. Otherwise another packet has already backed it off, or an
+	// ACK has brought it back down, and the packet just waits the timeout as it is now. Comparing
+	// lengths instead isn't enough: once an ACK has brought the timeout down, every packet still
+	// waiting out a backed off one would double it again in turn.
+	public synchronized long backOff(int expiredVersion)
+	{
+		if(expiredVersion == timeoutVersion)
+		{
+			timeoutMillis = clamp(timeoutMillis * 2);
+			timeoutVersion++;
+		}
+		return timeoutMillis;
+	}
+
+	public synchronized long getTimeoutMillis()
+	{
+		return timeoutMillis;
+	}
+
+	public synchronized int getTimeoutVersion()
+	{
+		return timeoutVersion;
+	}
+
+	public synchronized double getSmoothedRTTMillis()
+	{
+		return smoothedRTT;
+	}
+
+	private static long clamp(long timeout)
+	{
+		return Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, timeout));
+	}
+}
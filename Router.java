@@ -1,10 +1,6 @@
-import java.net.DatagramSocket;
-import java.io.IOException;
-import java.net.DatagramPacket; 
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Timer;
-
-import tcdIO.*;
 
 /**
  *
@@ -23,26 +19,37 @@ import tcdIO.*;
  * the packet to. This is effectively the same process as having multiple sockets.
  *
  */
-public class Router extends Node {
-	static int thisRouterSRCPort;
+public class Router extends Node implements NodeData.LinkHandler {
+	// Run with -Drouter.linkThreads=true to give every neighbour its own thread (see NodeData.startLinkThread())
+	static final boolean LINK_THREADS = Boolean.getBoolean("router.linkThreads");
+	int thisRouterSRCPort;
 	static final String DEFAULT_DST_NODE = "localhost";
-	static ArrayList<SNDContent> waitingToSend = new ArrayList<SNDContent>();
-	static RouterFlowTable routerFlowTable;
+	RouterFlowTable routerFlowTable;
 	String flowRequestInformationToSendToController;
 	String routerName;
 	
 	// For keeping track of the controller, host and all the routers directly connected to this router
-	static ArrayList<NodeData> connectedRouters = new ArrayList<NodeData>();
+	ArrayList<NodeData> connectedRouters = new ArrayList<NodeData>();
 	NodeData connectedController;
 	NodeData connectedHost;
 	
-	boolean setupComplete;
-	boolean hostReturnedHello;
-	static Terminal terminal;
+	// Set on the receive thread, read by the forwarding workers and start()
+	volatile boolean setupComplete;
+	volatile boolean hostReturnedHello;
+	
+	// null when data packets are forwarded on the receive thread itself
+	ForwardingPipeline forwardingPipeline;
+	
+	// Packets for hosts our flow table doesn't know yet, until the Controller tells us about them
+	PendingPacketQueues pendingPackets = new PendingPacketQueues(PendingPacketQueues.PER_HOST_CAPACITY,
+			PendingPacketQueues.TOTAL_CAPACITY, PendingPacketQueues.DROP_OLDEST, PendingPacketQueues.TTL_MILLIS,
+			PendingPacketQueues.REQUEST_RETRY_MILLIS);
+	EventLog log;
+	final RouterStatistics statistics = new RouterStatistics(this);
 
-	Router(Terminal terminal, String[] routerArguments, int controllerPort) {
+	Router(EventLog log, String[] routerArguments, int controllerPort) {
 		try{
-			Router.terminal = terminal;	
+			this.log = log;
 			setupComplete = false;
 			hostReturnedHello = false;
 			
@@ -50,11 +57,10 @@ public class Router extends Node {
 			// of a string array.
 			routerName = routerArguments[0];
 			thisRouterSRCPort = Integer.parseInt(routerArguments[1]);
-			socket = new DatagramSocket(thisRouterSRCPort);
-			routerFlowTable = new RouterFlowTable();
+			transport = Transport.open(thisRouterSRCPort);
 			
 			// Create a node data for the controller
-			connectedController = new NodeData(socket, controllerPort, "CONTROLLER", "CONTROLLER", 0);
+			connectedController = new NodeData(transport, controllerPort, "CONTROLLER", "CONTROLLER", 0);
 
 			
 			// We will start a string called informationToSendToController, which will consist of
@@ -66,7 +72,7 @@ public class Router extends Node {
 			// Register the connected router as a NodeData. If the router is not connected to a host, 
 			// then this value remains null
 			if(!(routerArguments[2].equals("00")))
-				connectedHost = new NodeData(socket, Integer.parseInt(routerArguments[3]), "HOST", routerArguments[2], 0);
+				connectedHost = new NodeData(transport, Integer.parseInt(routerArguments[3]), "HOST", routerArguments[2], 0);
 			
 			flowRequestInformationToSendToController += routerArguments[2];	// May be a Hosts name, or "00" if no host connected
 			
@@ -80,26 +86,48 @@ public class Router extends Node {
 				String connectedRouterName = routerArguments[i];
 				int connectedRouterSocket = Integer.parseInt(routerArguments[i+1]);
 				int connectedRouterDistance = Integer.parseInt(routerArguments[i+2]);
-				connectedRouters.add(new NodeData(socket, connectedRouterSocket, "ROUTER", connectedRouterName, connectedRouterDistance));
+				connectedRouters.add(new NodeData(transport, connectedRouterSocket, "ROUTER", connectedRouterName, connectedRouterDistance));
 				
 				// Append the connected router's name and distance to our informationToSendToController string
 				flowRequestInformationToSendToController += 
 						connectedRouterName + ((connectedRouterDistance < 10) ? "0" + connectedRouterDistance : connectedRouterDistance);
 			}
 			
-			listener.go();
+			routerFlowTable = new RouterFlowTable(routerName, connectedHost, connectedRouters);
+			
+			if(ForwardingPipeline.WORKERS > 0)
+				forwardingPipeline = new ForwardingPipeline(this, ForwardingPipeline.WORKERS, ForwardingPipeline.QUEUE_CAPACITY);
+			
+			Metrics.registerNode("Router", routerName, statistics);
+			Metrics.registerLink(routerName, connectedController);
+			if(connectedHost != null) Metrics.registerLink(routerName, connectedHost);
+			for(NodeData connectedRouter : connectedRouters)
+				Metrics.registerLink(routerName, connectedRouter);
+			
+			if(LINK_THREADS)
+			{
+				connectedController.startLinkThread(this);
+				if(connectedHost != null) connectedHost.startLinkThread(this);
+				for(NodeData connectedRouter : connectedRouters)
+					connectedRouter.startLinkThread(this);
+			}
+			
+			transport.start(this);
 		} 
 		catch (java.lang.Exception e) { e.printStackTrace(); }
 	}
 
 	// Assume that incoming packets contain a String, create PacketContent which
 	// sets the variables.
+	// This is the receive stage, and is only ever called from the transport's one receiving
+	// thread. Each NodeData guards its own sequence numbers and windows, so there's no need
+	// to hold the router's lock here (which would stall the forwarding workers).
 
-	public synchronized void onReceipt(DatagramPacket receivedPacket) {
+	public void onReceipt(ByteBuffer receivedPacket, InetSocketAddress sender) {
 		
 		// First we need to find the router that this packet was delivered from
 		// so we can communicate back later
-		int portDeliveredFrom = receivedPacket.getPort();
+		int portDeliveredFrom = sender.getPort();
 		NodeData nodeDeliveredFrom = findNode(portDeliveredFrom);
 		
 		// First check its an ACK, else it is a SND		
@@ -107,40 +135,51 @@ public class Router extends Node {
 		
 		// First we have to check the case that the packet is from our connected host
 		if(potentialACK.isValidACK())
-			acceptACKs(nodeDeliveredFrom, potentialACK.getACKNumber());
+		{
+			if(nodeDeliveredFrom == null) return;
+			if(nodeDeliveredFrom.hasLinkThread())
+				nodeDeliveredFrom.postReceived(potentialACK);
+			else
+				nodeDeliveredFrom.acceptACKs(potentialACK);
+		}
 		else
 		{
 			SNDContent newPacket = new SNDContent(receivedPacket);
 			
 			if(newPacket.isValid() && nodeDeliveredFrom != null)
 			{
-				if(newPacket.getPacketNumber() == nodeDeliveredFrom.getNextExpectedPackNum())
-				{
-					// Immediately send ACK back
-					nodeDeliveredFrom.incrementNextExpectedPackNum();
-					sendACK(nodeDeliveredFrom);
-					
-					if (nodeDeliveredFrom.getNodeType().equals("CONTROLLER")) // if new Job Listing
-						processControllerInstruction(newPacket);
-					else if(nodeDeliveredFrom.getNodeType().equals("ROUTER"))
-						processRouterInstruction(newPacket);
-					else if(nodeDeliveredFrom.getNodeType().equals("HOST"))
-						processHostInstruction(newPacket);
-				}
-				else
+				// With link threads, the neighbour's own thread does the rest
+				if(nodeDeliveredFrom.hasLinkThread())
 				{
-					// Send an ACK with next expected packet number if this node 
-					// has already sent us this packet. We don't increment the 
-					// next expected packet number here.
-					if(nodeDeliveredFrom != null) sendACK(nodeDeliveredFrom);
+					nodeDeliveredFrom.postReceived(newPacket);
+					return;
 				}
+				
+				// NodeData hands back whichever packets are now in order (none if this one
+				// was a duplicate, or arrived early and was buffered). Either way we
+				// immediately send an ACK back with the next packet number we expect.
+				ArrayList<SNDContent> inOrderPackets = nodeDeliveredFrom.receivePacket(newPacket);
+				nodeDeliveredFrom.sendACK();
+				
+				for(SNDContent inOrderPacket : inOrderPackets)
+					onLinkPacket(nodeDeliveredFrom, inOrderPacket);
 			}
 
 		}
-
-		this.notify();
 }
 	
+	// Called for each packet from a neighbour once it is in order, on whichever thread
+	// received it (the receive thread, or the neighbour's link thread)
+	public void onLinkPacket(NodeData nodeDeliveredFrom, SNDContent inOrderPacket)
+	{
+		if (nodeDeliveredFrom.getNodeType().equals("CONTROLLER")) // if new Job Listing
+			processControllerInstruction(inOrderPacket);
+		else if(nodeDeliveredFrom.getNodeType().equals("ROUTER"))
+			processRouterInstruction(inOrderPacket);
+		else if(nodeDeliveredFrom.getNodeType().equals("HOST"))
+			processHostInstruction(inOrderPacket);
+	}
+	
 	public NodeData findNode(int portDeliveredFrom)
 	{
 		if(connectedHost != null)
@@ -160,100 +199,76 @@ public class Router extends Node {
 		return null;
 	}
 	
-	private void acceptACKs(NodeData nodeDeliveredFrom, int latestACK) {
-		// Decrement ACK Packet Number by 1
-		int iterationACK = (15 + latestACK) % 16;
-
-		// find last timer placed in Go-Back-N Window
-		Timer packetTimerIteration = nodeDeliveredFrom.goBackNWindow[iterationACK];
-		
-		// until we reach the null element...
-		while (packetTimerIteration != null) 
-		{
-			// cancel timer and nullify it on array
-			packetTimerIteration.cancel(); 
-			nodeDeliveredFrom.goBackNWindow[iterationACK] = null;
-			
-			// Continue the while loop, so we can also ACK all previous messages to this router
-			packetTimerIteration = nodeDeliveredFrom.goBackNWindow[iterationACK];
-			nodeDeliveredFrom.goBackNWindowSize--;
-			
-			// equation for cycling backwards through a cyclical array of size 16
-			iterationACK = (15 + iterationACK) % 16;
-		}
-	}
-	
-	private void sendACK(NodeData nodeDeliveredFrom)
+	public void forwardPacket(SNDContent packetToForward, RouterFlowTable.Snapshot flowTable)
 	{
-		// ACKs are typically only sent once, so we do not have to designate a timer
-		// to them, and we do not have to add them to our Go-Back-N window.
-		ACKContent newACK = new ACKContent(nodeDeliveredFrom.getNextExpectedPackNum());
-		DatagramPacket ackPacket = newACK.toDatagramPacket(); 
-		ackPacket.setSocketAddress(nodeDeliveredFrom.getDstAddress()); 
-		try {
-			socket.send(ackPacket);
-		} catch (IOException e) { e.printStackTrace(); }; 
-	}
-	
-	public void forwardPacket(SNDContent packetToForward, String destinationHost)
-	{
-		if(connectedHost != null)	
-		{
-			if(destinationHost.equals(connectedHost.getNodeName()))
-			{	// For the specific case that we need to forward this packet to our connected host
-				forwardToHost(packetToForward);
-				return;
-			}
-		}
-
-		String accessRouterName = routerFlowTable.getAccessRouter(destinationHost);
-		NodeData nextRouter = null;
-		for(NodeData iterationRouter : connectedRouters)
-		{
-			if(iterationRouter.getNodeName().equals(accessRouterName))
-			{
-				nextRouter = iterationRouter;
-				break;
-			}
+		// The flow table gives us the NodeData to send to directly
+		NodeData nextRouter = flowTable.getNextHop(packetToForward.getDestinationHostID());
+		
+		if(nextRouter != null && nextRouter == connectedHost)
+		{	// For the specific case that we need to forward this packet to our connected host
+			forwardToHost(packetToForward);
 		}
-			
-		if(nextRouter != null)
+		else if(nextRouter == null)
+			statistics.packetsDroppedNoRoute.increment();
+		else if(!nextRouter.sendPacket(packetToForward))
+			statistics.packetsDroppedEgressQueueFull.increment();
+		else
 		{
-			nextRouter.sendPacket(packetToForward);
-			terminal.println(routerName + ": Packet forwarded to " + nextRouter.getNodeName() 
-				+ " (Src: " + packetToForward.getSourceHostName() +
-				", Dst: " + packetToForward.getDestinationHostName() 
-				+ ", Content: " + packetToForward.getPacketContent() +")");
+			statistics.packetsForwarded.increment();
+			if(log.isLogged(EventLog.Event.PACKET_FORWARDED))
+				log.write(routerName + ": Packet forwarded to " + nextRouter.getNodeName() 
+					+ " (Src: " + packetToForward.getSourceHostName() +
+					", Dst: " + packetToForward.getDestinationHostName() 
+					+ ", Content: " + packetToForward.getPacketContent() +")");
 		}
 	}
 	
 	public void processControllerInstruction(SNDContent newPacket)
 	{
-		if(newPacket.getContentType().equals("HELLO"))
+		if(newPacket.getContentType() == ContentType.HELLO)
 		{
-			terminal.println(routerName + ": Controller said hello back!");
+			log.log(EventLog.Event.SETUP, routerName + ": Controller said hello back!");
 		}
-		else if(newPacket.getContentType().equals("FETRQ"))
+		else if(newPacket.getContentType() == ContentType.FETRQ)
 		{
-			terminal.println("Controller is requesting a FeatureReply...");
-			SNDContent featureReply = new SNDContent("SND00FETRP0000" 
-							+ flowRequestInformationToSendToController + '\u0003');
+			log.log(EventLog.Event.SETUP, "Controller is requesting a FeatureReply...");
+			SNDContent featureReply = new SNDContent(ContentType.FETRP, 
+							flowRequestInformationToSendToController);
 			connectedController.sendPacket(featureReply);
-			terminal.println(routerName + ": FeatureReply sent, setup complete.");
+			log.log(EventLog.Event.SETUP, routerName + ": FeatureReply sent, setup complete.");
 			setupComplete = true;
 			
 			// Now we must send a "Hello" to the host, so they know they can 
 			// start sending strings
-			SNDContent helloToHost = new SNDContent("SND00HELLO0000" + '\u0003');
+			SNDContent helloToHost = new SNDContent(ContentType.HELLO, "");
 			if(connectedHost != null) connectedHost.sendPacket(helloToHost);
 			
 		}
-		else if(newPacket.getContentType().equals("FLWMD"))
+		else if(newPacket.getContentType() == ContentType.FLWMD)
 		{
 			if(newPacket.getPacketContent() != null)
 			{
 				routerFlowTable.updateFlowChart(newPacket.getPacketContent());
-				terminal.println(routerName + ": Controller has updated our flow table!");
+				statistics.flowTableUpdates.increment();
+				log.log(EventLog.Event.FLOW_UPDATE, routerName + ": Controller has updated our flow table!");
+				sendPendingPackets();
+			}
+		}
+		else if(newPacket.getContentType() == ContentType.FLWDL)
+		{
+			// Only the changes to our flow table. If they were worked out from a different
+			// version of the table than ours, we ask the Controller for the whole table.
+			if(routerFlowTable.applyFlowDelta(newPacket.getPacketContent()))
+			{
+				statistics.flowTableUpdates.increment();
+				log.log(EventLog.Event.FLOW_UPDATE, routerName + ": Controller has updated our flow table!");
+				sendPendingPackets();
+			}
+			else
+			{
+				log.log(EventLog.Event.FLOW_REQUEST, routerName + ": Flow table is out of date, requesting the full table from Controller...");
+				statistics.resyncRequestsSent.increment();
+				connectedController.sendPacket(new SNDContent(ContentType.PACIN, FlowModification.RESYNC));
 			}
 		}
 	}
@@ -261,86 +276,124 @@ public class Router extends Node {
 	public void processRouterInstruction(SNDContent newPacket)
 	{
 		// Routers will receive only "PACIN" packet content types from other routers
-		if(newPacket.getContentType().equals("PACIN"))
+		if(newPacket.getContentType() == ContentType.PACIN)
 		{
-			String destinationHost = newPacket.getDestinationHostName();
-				
-			// If we know about the destination host (judging by our flow table), then
-			// we can send the packet on. Otherwise, we must request a new flow table
-			// from the Controller.
-			
-			if(routerFlowTable.isDestinationHostKnown(destinationHost))
-				forwardPacket(newPacket, destinationHost);						
-			else
-			{
-				terminal.println(routerName + ": Requesting flow modification from Controller...");
-				SNDContent requestFlowMod = new SNDContent("SND00PACIN0000" + '\u0003');
-				connectedController.sendPacket(requestFlowMod);
-				waitingToSend.add(newPacket);
-			}
+			routePacket(newPacket);
 		}
 	}
 	
 	public void processHostInstruction(SNDContent newPacket)
 	{
 		// Routers will also received only "PACIN" packets from hosts
-		if(newPacket.getContentType().equals("PACIN"))
+		if(newPacket.getContentType() == ContentType.PACIN)
 		{
-			terminal.println(routerName + ": Packet received from " + connectedHost.getNodeName() + ", attempting to send to " + newPacket.getDestinationHostName());
-			if(routerFlowTable.isDestinationHostKnown(newPacket.getDestinationHostName()))
-				forwardPacket(newPacket, newPacket.getDestinationHostName());	
-			else
+			if(log.isLogged(EventLog.Event.PACKET_RECEIVED))
+				log.write(routerName + ": Packet received from " + connectedHost.getNodeName() + ", attempting to send to " + newPacket.getDestinationHostName());
+			routePacket(newPacket);
+		}
+		else if(newPacket.getContentType() == ContentType.HELLO)
+			hostReturnedHello = true;
+	}
+	
+	// Passes a data packet on to the forwarding stage: the worker for its destination host
+	// if we have any, or else straight on to forwardOrPark() on this thread.
+	private void routePacket(SNDContent newPacket)
+	{
+		if(forwardingPipeline != null)
+			forwardingPipeline.dispatch(newPacket);
+		else
+			forwardOrPark(newPacket);
+	}
+	
+	// If we know about the destination host (judging by our flow table), then
+	// we can send the packet on. Otherwise, we must request a new flow table
+	// from the Controller, and keep the packet until it arrives. Only the first packet
+	// for a host asks the Controller, and the rest wait for the same answer.
+	// The check is repeated while holding pendingPackets, so that the flow table can't be
+	// updated and the queues sent on in between, leaving the packet stuck in its queue. A host
+	// that has packets waiting for it is treated as unknown until they have been sent, so that
+	// the new packet goes out after them.
+	public void forwardOrPark(SNDContent newPacket)
+	{
+		int destinationHost = newPacket.getDestinationHostID();
+		RouterFlowTable.Snapshot flowTable = routerFlowTable.getSnapshot();
+		if(flowTable.isDestinationHostKnown(destinationHost) && !pendingPackets.hasPackets(destinationHost))
+		{
+			forwardPacket(newPacket, flowTable);
+			return;
+		}
+		
+		synchronized(pendingPackets)
+		{
+			flowTable = routerFlowTable.getSnapshot();
+			if(flowTable.isDestinationHostKnown(destinationHost) && !pendingPackets.hasPackets(destinationHost))
 			{
-				SNDContent requestFlowMod = new SNDContent("SND00PACIN0000" + '\u0003');
-				connectedController.sendPacket(requestFlowMod);
-				waitingToSend.add(newPacket);
+				forwardPacket(newPacket, flowTable);
+				return;
 			}
+			if(!pendingPackets.hold(newPacket))
+			{
+				log.log(EventLog.Event.PACKET_DROPPED, routerName + ": Too many packets waiting for " + newPacket.getDestinationHostName() 
+						+ ", packet discarded");
+				return;
+			}
+			if(flowTable.isDestinationHostKnown(destinationHost)) return;	// it will go out with the others
+			if(!pendingPackets.shouldRequestFlow(destinationHost)) return;
+		}
+		// The host we need a route to goes in the destination field, and the content is left empty
+		// (RESYNC is only for asking for the whole table)
+		log.log(EventLog.Event.FLOW_REQUEST, routerName + ": Requesting flow modification from Controller for " + newPacket.getDestinationHostName() + "...");
+		SNDContent requestFlowMod = new SNDContent(ContentType.PACIN, SNDContent.NO_NODE, newPacket.getDestinationHostName(), "");
+		statistics.flowRequestsSent.increment();
+		connectedController.sendPacket(requestFlowMod);
+	}
+	
+	// Called after the Controller has updated our flow table. Only the hosts the new table knows
+	// about have their packets sent, and the rest keep waiting.
+	private void sendPendingPackets()
+	{
+		synchronized(pendingPackets)
+		{
+			RouterFlowTable.Snapshot flowTable = routerFlowTable.getSnapshot();
+			for(SNDContent pendingPacket : pendingPackets.removeKnown(flowTable))
+				forwardPacket(pendingPacket, flowTable);
 		}
-		else if(newPacket.getContentType().equals("HELLO"))
-			hostReturnedHello = true;
 	}
 	
 	public void forwardToHost(SNDContent content)
 	{
 		if(hostReturnedHello)	// if we know that the host is available
 		{
-			connectedHost.sendPacket(content);
-			terminal.println(routerName + ": Packet DELIVERED to " + connectedHost.getNodeName() 
-			+ " (Src: " + content.getSourceHostName() +
-			", Dst: " + content.getDestinationHostName() 
-			+ ", Content: " + content.getPacketContent() +")");
+			if(!connectedHost.sendPacket(content))
+			{
+				statistics.packetsDroppedEgressQueueFull.increment();
+				return;
+			}
+			statistics.packetsDelivered.increment();
+			if(log.isLogged(EventLog.Event.PACKET_DELIVERED))
+				log.write(routerName + ": Packet DELIVERED to " + connectedHost.getNodeName() 
+				+ " (Src: " + content.getSourceHostName() +
+				", Dst: " + content.getDestinationHostName() 
+				+ ", Content: " + content.getPacketContent() +")");
 		}
 		else
 		{
-			terminal.println(routerName + ": Packet received for " + connectedHost.getNodeName() + ", but "
+			statistics.packetsDroppedHostNotConnected.increment();
+			log.log(EventLog.Event.PACKET_DROPPED, routerName + ": Packet received for " + connectedHost.getNodeName() + ", but "
 					+ "this host is not connected. Packet discarded");
 		}
 	}
 	
 	public synchronized void start() throws Exception {		
-		SNDContent helloToController = new SNDContent("SND00HELLO0000" + routerName + '\u0003');
-		terminal.println(routerName + ": Saying hello to Controller...");
+		SNDContent helloToController = new SNDContent(ContentType.HELLO, routerName);
+		log.log(EventLog.Event.SETUP, routerName + ": Saying hello to Controller...");
 		connectedController.sendPacket(helloToController);
-		ArrayList<SNDContent> removable = new ArrayList<SNDContent>();
+		pendingPackets.start();
+		
+		// Everything from here on happens as packets arrive, including sending on the packets
+		// that were waiting for a flow modification
 		while(true) 
 		{
-			if(setupComplete)
-			{
-				// Will iterate over the packets that we previously were not able to send,
-				// and see if our flow table has been updated to include the destination host
-				
-				for(SNDContent recheckingPacket : waitingToSend)
-				{
-					if(routerFlowTable.isDestinationHostKnown(recheckingPacket.getDestinationHostName()))
-					{
-						forwardPacket(recheckingPacket, recheckingPacket.getDestinationHostName());
-						removable.add(recheckingPacket);
-					}
-				}
-				for(SNDContent removePacket : removable)
-					waitingToSend.remove(removePacket);
-				removable.clear();
-			}
 			this.wait();
 		}
 	}
@@ -349,8 +402,7 @@ public class Router extends Node {
 		try 
 		{
 			String [] routerArguments = args;
-			Terminal terminal1 = new Terminal("Router");
-			(new Router(terminal1, routerArguments, 50000)).start();
+			(new Router(EventLog.open("Router"), routerArguments, 50000)).start();
 		} catch (java.lang.Exception e) { e.printStackTrace(); }
 	}
 }
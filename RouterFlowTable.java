@@ -1,57 +1,195 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class RouterFlowTable {
-	
-	static ArrayList<String> allHostNames = new ArrayList<String>();
-	static ArrayList<HostAndAccess> routerFlowTable = new ArrayList<HostAndAccess>();
-	
-	public class HostAndAccess{
-		String hostName;
-		String accessRouter;
-		
-		HostAndAccess(String hostName, String accessRouter)
-		{
-			this.hostName = hostName;
-			this.accessRouter = accessRouter;
-		}
+	// The Controller can send a flow modification at any time, while the forwarding threads are
+	// in the middle of reading the table. Rather than locking the table for every packet, each
+	// flow modification builds a complete new Snapshot off to the side, and then swaps it in
+	// with a single volatile write. A forwarding thread reads `current` once, and keeps using
+	// that snapshot for the whole packet, so it sees either the old table or the new one, but
+	// never an empty or half built one.
+	private static final int EMPTY = -1;
+	private volatile Snapshot current = new Snapshot(0, new int[] { EMPTY, EMPTY }, new NodeData[2], 31);
+
+	private final String routerName;
+	private final NodeData connectedHost;
+	private final ArrayList<NodeData> connectedRouters;
+
+	RouterFlowTable(String routerName, NodeData connectedHost, ArrayList<NodeData> connectedRouters)
+	{
+		this.routerName = routerName;
+		this.connectedHost = connectedHost;
+		this.connectedRouters = connectedRouters;
 	}
-	
-	public void updateFlowChart(String updatedFlowString)
+
+	// Only one update is built at a time, which is all the lock is for. Readers never take it.
+	public synchronized void updateFlowChart(String updatedFlowString)
 	{
 		// This method is called when the controller sends a router a Flow Modification packet.
 		// While this would normally involve just appending a new entry to the router's
 		// flow table, in my program it's easier and takes very little time to just start the router's
 		// flow table from scratch every time, since we're just getting a series of substrings from the
-		// controllers packet. There is also the case that, if the router knows about a host already, 
-		// but the controller has discovered an even faster route due to new routers on the network, 
-		// then this router will instead use that new route. This wouldn't be possible if we were to 
+		// controllers packet. There is also the case that, if the router knows about a host already,
+		// but the controller has discovered an even faster route due to new routers on the network,
+		// then this router will instead use that new route. This wouldn't be possible if we were to
 		// simply append to the flow table.
-		
-		allHostNames.clear();
-		routerFlowTable.clear();
-		
-		for(int i = 0; i < updatedFlowString.length(); i = i + 4)
+		// The router names are turned into NodeData here, once per flow modification, rather than
+		// for every packet forwarded.
+
+		long version = FlowModification.parseVersion(updatedFlowString, 0);
+		HashMap<Integer, NodeData> entries = new HashMap<Integer, NodeData>();
+		for(int i = FlowModification.VERSION_LENGTH; i + FlowModification.ENTRY_LENGTH <= updatedFlowString.length(); 
+				i = i + FlowModification.ENTRY_LENGTH)
 		{
 			String hostName = updatedFlowString.substring(i, i+2);
 			String accessRouter = updatedFlowString.substring(i+2, i+4);
-			allHostNames.add(hostName);
-			routerFlowTable.add(new HostAndAccess(hostName, accessRouter));
+			entries.put(PacketCodec.nameToId(hostName), findNextHop(hostName, accessRouter));
 		}
+		current = buildSnapshot(version, entries);
 	}
-	
-	public boolean isDestinationHostKnown(String hostName)
+
+	// Applies a FLWDL from the Controller. Only the hosts named in it are looked at, and every
+	// other host keeps the NodeData it already had. Returns false, leaving the table as it is, if
+	// the delta was worked out from a different version of the table than the one we have, in
+	// which case we need the whole table again.
+	public synchronized boolean applyFlowDelta(String flowDelta)
 	{
-		return allHostNames.contains(hostName);
+		Snapshot previous = current;
+		if(FlowModification.parseVersion(flowDelta, 0) != previous.version) return false;
+		long version = FlowModification.parseVersion(flowDelta, FlowModification.VERSION_LENGTH);
+
+		HashMap<Integer, NodeData> entries = previous.getEntries();
+		int i = FlowModification.VERSION_LENGTH * 2;
+		while(i + 3 <= flowDelta.length())
+		{
+			char change = flowDelta.charAt(i);
+			String hostName = flowDelta.substring(i+1, i+3);
+			if(change == FlowModification.DELETE)
+			{
+				entries.remove(PacketCodec.nameToId(hostName));
+				i = i + 3;
+			}
+			else
+			{
+				String accessRouter = flowDelta.substring(i+3, i+5);
+				entries.put(PacketCodec.nameToId(hostName), findNextHop(hostName, accessRouter));
+				i = i + 5;
+			}
+		}
+		current = buildSnapshot(version, entries);
+		return true;
 	}
-	
-	public String getAccessRouter(String hostName)
+
+	public long getVersion()
 	{
-		for(HostAndAccess iteration : routerFlowTable)
+		return current.version;
+	}
+
+	private static Snapshot buildSnapshot(long version, Map<Integer, NodeData> entries)
+	{
+		int capacity = 2;
+		while(capacity < entries.size() * 2) capacity *= 2;
+		int shift = 32 - Integer.numberOfTrailingZeros(capacity);
+
+		int[] newHostIds = new int[capacity];
+		Arrays.fill(newHostIds, EMPTY);
+		NodeData[] newNextHops = new NodeData[capacity];
+
+		for(Map.Entry<Integer, NodeData> entry : entries.entrySet())
+		{
+			int hostId = entry.getKey();
+			int slot = findSlot(newHostIds, shift, hostId);
+			newHostIds[slot] = hostId;
+			newNextHops[slot] = entry.getValue();
+		}
+		return new Snapshot(version, newHostIds, newNextHops, shift);
+	}
+
+	// A host we know about may still have no next hop, if the Controller names a router we
+	// aren't connected to. Packets for it are dropped, as they always have been.
+	private NodeData findNextHop(String hostName, String accessRouter)
+	{
+		if(connectedHost != null && (hostName.equals(connectedHost.getNodeName()) || accessRouter.equals(routerName)))
+			return connectedHost;
+
+		for(NodeData iterationRouter : connectedRouters)
 		{
-			if(iteration.hostName.equals(hostName))
-				return iteration.accessRouter;
+			if(iterationRouter.getNodeName().equals(accessRouter))
+				return iterationRouter;
 		}
 		return null;
 	}
 
+	// Fibonacci hashing, as host ids only differ in their last character or two
+	private static int findSlot(int[] table, int shift, int hostId)
+	{
+		int mask = table.length - 1;
+		int slot = (hostId * 0x9E3779B9) >>> shift;
+		while(table[slot] != EMPTY && table[slot] != hostId)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	public Snapshot getSnapshot()
+	{
+		return current;
+	}
+
+	/**
+	 *
+	 * Snapshot class
+	 *
+	 * One version of the flow table, which is never changed once it has been published.
+	 * An open addressing hash table from destination host id (see PacketCodec.nameToId) to the
+	 * NodeData its packets go out to: one of our neighbouring routers, or our own host. It uses
+	 * linear probing, and is never more than half full. Since the whole table is rebuilt on every
+	 * flow modification, entries never have to be removed, and forwarding a packet is one
+	 * hash and usually one comparison, with no strings involved.
+	 */
+	public static final class Snapshot {
+		private final long version;
+		private final int[] hostIds;
+		private final NodeData[] nextHops;
+		private final int hashShift;
+
+		private Snapshot(long version, int[] hostIds, NodeData[] nextHops, int hashShift)
+		{
+			this.version = version;
+			this.hostIds = hostIds;
+			this.nextHops = nextHops;
+			this.hashShift = hashShift;
+		}
+
+		// The version the Controller gave this table
+		public long getVersion()
+		{
+			return version;
+		}
+
+		// Copies the table out, to build the next version from
+		HashMap<Integer, NodeData> getEntries()
+		{
+			HashMap<Integer, NodeData> entries = new HashMap<Integer, NodeData>();
+			for(int slot = 0; slot < hostIds.length; slot++)
+			{
+				if(hostIds[slot] != EMPTY) entries.put(hostIds[slot], nextHops[slot]);
+			}
+			return entries;
+		}
+
+		public boolean isDestinationHostKnown(int hostId)
+		{
+			return hostIds[findSlot(hostIds, hashShift, hostId)] == hostId;
+		}
+
+		// Returns null if the host is unknown, or we have no way of reaching it
+		public NodeData getNextHop(int hostId)
+		{
+			int slot = findSlot(hostIds, hashShift, hostId);
+			return (hostIds[slot] == hostId) ? nextHops[slot] : null;
+		}
+	}
+
 }
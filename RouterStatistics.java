@@ -0,0 +1,98 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * RouterStatistics class
+ *
+ * Counts of what a Router has done with the data packets that reach it, as a whole (each of its
+ * links has its own LinkStatistics too). Several forwarding workers can be counting at once, so
+ * the counts are LongAdders.
+ *
+ *   packetsForwarded				sent on to the next router
+ *   packetsDelivered				sent on to our own host
+ *   packetsDroppedNoRoute			the Controller gave us a route through a router we aren't linked to
+ *   packetsDroppedHostNotConnected	for our host, before it had said hello
+ *   packetsDroppedEgressQueueFull	the next hop's window and egress queue were both full
+ *   flowRequestsSent				PACINs asking the Controller for a route to a host
+ *   resyncRequestsSent				PACINs asking for the whole flow table again
+ *   flowTableUpdates				FLWMDs and FLWDLs applied to the flow table
+ *
+ * Packets waiting for a route are counted by the PendingPacketQueues.
+ */
+public class RouterStatistics implements RouterStatisticsMBean {
+	final LongAdder packetsForwarded = new LongAdder();
+	final LongAdder packetsDelivered = new LongAdder();
+	final LongAdder packetsDroppedNoRoute = new LongAdder();
+	final LongAdder packetsDroppedHostNotConnected = new LongAdder();
+	final LongAdder packetsDroppedEgressQueueFull = new LongAdder();
+	final LongAdder flowRequestsSent = new LongAdder();
+	final LongAdder resyncRequestsSent = new LongAdder();
+	final LongAdder flowTableUpdates = new LongAdder();
+
+	private final Router router;
+
+	RouterStatistics(Router router)
+	{
+		this.router = router;
+	}
+
+	public long getPacketsForwarded()
+	{
+		return packetsForwarded.sum();
+	}
+
+	public long getPacketsDelivered()
+	{
+		return packetsDelivered.sum();
+	}
+
+	public long getPacketsDroppedNoRoute()
+	{
+		return packetsDroppedNoRoute.sum();
+	}
+
+	public long getPacketsDroppedHostNotConnected()
+	{
+		return packetsDroppedHostNotConnected.sum();
+	}
+
+	public long getPacketsDroppedEgressQueueFull()
+	{
+		return packetsDroppedEgressQueueFull.sum();
+	}
+
+	public long getFlowRequestsSent()
+	{
+		return flowRequestsSent.sum();
+	}
+
+	public long getResyncRequestsSent()
+	{
+		return resyncRequestsSent.sum();
+	}
+
+	public long getFlowTableUpdates()
+	{
+		return flowTableUpdates.sum();
+	}
+
+	public long getFlowTableVersion()
+	{
+		return router.routerFlowTable.getVersion();
+	}
+
+	public int getPendingPackets()
+	{
+		return router.pendingPackets.size();
+	}
+
+	public long getPendingPacketsDropped()
+	{
+		return router.pendingPackets.getDroppedPackets();
+	}
+
+	public long getPendingPacketsExpired()
+	{
+		return router.pendingPackets.getExpiredPackets();
+	}
+}
@@ -0,0 +1,21 @@
+/**
+ *
+ * RouterStatisticsMBean interface
+ *
+ * What RouterStatistics shows over JMX (see Metrics).
+ */
+public interface RouterStatisticsMBean {
+	long getPacketsForwarded();
+	long getPacketsDelivered();
+	long getPacketsDroppedNoRoute();
+	long getPacketsDroppedHostNotConnected();
+	long getPacketsDroppedEgressQueueFull();
+	long getFlowRequestsSent();
+	long getResyncRequestsSent();
+	long getFlowTableUpdates();
+
+	long getFlowTableVersion();
+	int getPendingPackets();
+	long getPendingPacketsDropped();
+	long getPendingPacketsExpired();
+}
@@ -1,214 +1,175 @@
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
 
 /*
- *  String Types:
- *  Packet Types - SND and ACK
- *  Packet Number - ##
- *  Content Types - HELLO, FETRQ, FETRP, PACIN, FLWMD
- *  Source Host - %%
- *  Destination Host - $$
-
- *  Content - (insert string here) + '\u0003'
+ *  SND packets are encoded with the fixed binary layout described in PacketCodec:
+ *  Packet Type - SND
+ *  Packet Number - int
+ *  Content Type - HELLO, FETRQ, FETRP, PACIN, FLWMD
+ *  Source Host - 2 byte node id
+ *  Destination Host - 2 byte node id
+ *  Content Length - 2 bytes, followed by the content itself
  *
  */
 
 public class SNDContent {
-	String fullDataPacketString;
-	String packetType;					// SND
+	static final String NO_NODE = "00";
+	static final int NO_NODE_ID = PacketCodec.nameToId(NO_NODE);
+
 	int packetNumber;					// ##
-	String contentType;					// HELLO, FETRQ, FETRP, PACIN, FLWMD, PACKT
-	String sourceHostName;
-	String destinationHostName;
-	String content;						// Job listing/Worker name string
+	ContentType contentType;			// HELLO, FETRQ, FETRP, PACIN, FLWMD
+	int sourceHostID;
+	int destinationHostID;
+	byte[] content;						// raw content bytes, kept as-is so forwarding never decodes them
 	boolean validPacket;				// used for error checking
-	
+
+	// Names and the content String are only created if something actually asks for them
+	private String sourceHostName;
+	private String destinationHostName;
+	private String contentString;
+
 	// for creating PacketContent from a received packet
-	public SNDContent(DatagramPacket packet) 
+	public SNDContent(DatagramPacket packet)
+	{
+		this(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
+	}
+
+	// Reads the header straight out of the buffer at its fixed offsets. The content bytes are
+	// copied out, as the buffer belongs to the receiver and will be reused for the next packet.
+	public SNDContent(ByteBuffer buffer)
 	{
 		validPacket = false;	//set as false at start
-		byte[] data;
-		data = packet.getData();
-		fullDataPacketString = new String(data);
-		
-		//all elements have to be valid for the entire packet to be considered valid. These methods
-		//also set the relevant variables within this PacketContent object at the same time.
-		validPacket = setPacketType(fullDataPacketString) 
-					  && setPacketNumber(fullDataPacketString) 
-					  && setContentType(fullDataPacketString) 
-					  && setSourceHostName(fullDataPacketString) 
-					  && setDestinationHostName(fullDataPacketString)
-					  && setPacketContent(fullDataPacketString);
-		
-		if(validPacket) this.fullDataPacketString = getPacketType()
-													+ getPacketNumberToString() 
-													+ getContentType()
-													+ getSourceHostName() 
-													+ getDestinationHostName()
-													+ getPacketContent()
-													+ '\u0003';
-	}
-	
-	//for creating a PacketContent manually from a String in order to send it as packet
-	public SNDContent(String inputString)		
-	{	
-		validPacket = false;	//set as false at start
-		validPacket = setPacketType(inputString) 
-				  && setPacketNumber(inputString) 
-				  && setContentType(inputString)
-				  && setSourceHostName(inputString) 
-				  && setDestinationHostName(inputString)
-				  && setPacketContent(inputString);
-	
-		if(validPacket) this.fullDataPacketString = getPacketType() 
-													+ getPacketNumberToString() 
-													+ getContentType() 
-													+ getSourceHostName() 
-													+ getDestinationHostName()
-													+ getPacketContent()
-													+ '\u0003';
-	}
-	
+		if(PacketCodec.packetType(buffer) != PacketCodec.TYPE_SND
+				|| buffer.remaining() < PacketCodec.SND_HEADER_LENGTH)
+			return;
+
+		packetNumber = PacketCodec.packetNumber(buffer);
+		contentType = PacketCodec.contentType(buffer);
+		sourceHostID = PacketCodec.sourceId(buffer);
+		destinationHostID = PacketCodec.destinationId(buffer);
+		int contentLength = PacketCodec.contentLength(buffer);
+
+		//all elements have to be valid for the entire packet to be considered valid.
+		if(packetNumber < 0 || contentType == null
+				|| contentLength > buffer.remaining() - PacketCodec.SND_HEADER_LENGTH)
+			return;
+
+		content = new byte[contentLength];
+		int contentStart = buffer.position() + PacketCodec.SND_HEADER_LENGTH;
+		if(buffer.hasArray())
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + contentStart, content, 0, contentLength);
+		else
+			buffer.duplicate().position(contentStart).get(content);
+		validPacket = true;
+	}
+
+	//for creating a PacketContent manually in order to send it as packet
+	public SNDContent(ContentType contentType, String sourceHostName, String destinationHostName, String content)
+	{
+		this.packetNumber = 0;
+		this.contentType = contentType;
+		this.sourceHostName = sourceHostName;
+		this.sourceHostID = PacketCodec.nameToId(sourceHostName);
+		this.destinationHostName = destinationHostName;
+		this.destinationHostID = PacketCodec.nameToId(destinationHostName);
+		this.contentString = content;
+		this.content = PacketCodec.encodeContent(content);
+		validPacket = this.content.length <= PacketCodec.MAX_CONTENT_LENGTH;
+	}
+
+	public SNDContent(ContentType contentType, String content)
+	{
+		this(contentType, NO_NODE, NO_NODE, content);
+	}
+
 	public String toString() {
-		return getPacketType() + getPacketNumberToString() + getContentType() 
-				+ getSourceHostName() + getDestinationHostName() + getPacketContent() + '\u0003';
+		return getPacketType() + getPacketNumberToString() + getContentType()
+				+ getSourceHostName() + getDestinationHostName() + getPacketContent();
 	}
-	
+
 	/*
-	 * toDatagramPacket() can be used (a) after instantiating a PacketContent object with the variables
-	 * we want to send, and then turning it into a DatagramPacket in order to actually send it, or (b)
-	 * after receiving a DatagramPacket and calling createACK() in order to turn it into an ACK packet.
-	 * 
-	 * '\u0003' is appended to the end of the fullDataPacketString. This is the character "End of Text",
-	 * which makes sure that the receiver knows exactly when the String ends. I was getting some errors 
-	 * without this, and it doesn't matter if there are multiple '\u0003's at the end of the packet, as 
-	 * long as there is at least one.
+	 * toDatagramPacket() is used after instantiating a PacketContent object with the variables
+	 * we want to send, or after resetting the packet number of a received one in order to forward
+	 * it. The header is written directly into the packet's byte array, and the content bytes are
+	 * copied across untouched.
 	 */
 
 	public DatagramPacket toDatagramPacket() {
-		DatagramPacket packet= null;
-		try 
-		{
-			this.fullDataPacketString = toString();
-			byte[] data = this.fullDataPacketString.getBytes();
-			packet = new DatagramPacket(data, data.length);
-		} catch(Exception e) { e.printStackTrace(); }
-		return packet;
-	}
-	
-	// SET METHODS
-	
-	private boolean setPacketType(String packetString)	//boolean returns true if assignment is successful
-	{
-		String packetType = packetString.substring(0,3);	//gets first 3 letters of packet string
-		if(packetType.equals("ACK") || packetType.equals("SND"))
-		{
-			this.packetType = packetType;
-			return true;
-		}
-		return false;
-	}
-	
-	//setPacketNumber establishes the packet number of the packet.
-	
-	private boolean setPacketNumber(String packetString)
-	{
-		String packetNumberString = packetString.substring(3, 5);
-		this.packetNumber = Integer.parseInt(packetNumberString);
-		if(packetNumber >= 0 && packetNumber <= 15)
-			return true;	
-		return false;
-	}
-	
-	//setContentType() establishes if a packet is of type JOB/CMP/WVU/WVA.
-	
-	private boolean setContentType(String packetString)
-	{
-		String contentType = packetString.substring(5, 10);
-		if(contentType.equals("HELLO") || contentType.contentEquals("FETRQ") 
-				|| (contentType.equals("FETRP") || contentType.equals("PACIN")
-				|| (contentType.equals("FLWMD"))))
-		{
-			this.contentType = contentType;
-			return true;
-		}
-		return false;
-	}
-	
-	// Both the destinationHostName and sourceHostName will have the structure
-	// of one letter and one number, so we only need to find substring of length 2.
-	
-	private boolean setSourceHostName(String packetString)
-	{
-		sourceHostName = packetString.substring(10, 12);
-		return true;
-	}
-	
-	private boolean setDestinationHostName(String packetString)
-	{
-		destinationHostName = packetString.substring(12, 14);
-		return true;
-	}
-	
-	// setPacketContent() is for creating the string of information that is contained within a
-	// packet, which will be either a job description or a worker name.
-	
-	private boolean setPacketContent(String packetString)
-	{
-		//Cutting off at EndOfText char
-		String content = packetString.substring(14, (packetString.indexOf('\u0003'))); 
-		this.content = content;
-		return true;
-	}
-	
-	public void resetContentType(String newContentType)
+		byte[] data = new byte[getEncodedLength()];
+		writeTo(ByteBuffer.wrap(data));
+		return new DatagramPacket(data, data.length);
+	}
+
+	public int getEncodedLength()
+	{
+		return PacketCodec.SND_HEADER_LENGTH + content.length;
+	}
+
+	public void writeTo(ByteBuffer buffer)
+	{
+		PacketCodec.writeSND(buffer, packetNumber, contentType, sourceHostID, destinationHostID, content);
+	}
+
+	public void resetContentType(ContentType newContentType)
 	{
 		this.contentType = newContentType;
 	}
-	
+
 	public void resetPacketNumber(int newPacketNumber)
 	{
 		this.packetNumber = newPacketNumber;
-		// if we are resetting packet number, we know it will be a SND packet
-		packetType = "SND"; 
 	}
-	
+
 	// GET METHODS
-	
+
 	public String getPacketType()
 	{
-		return packetType;
+		return "SND";
 	}
-	
+
 	public int getPacketNumber()
 	{
 		return packetNumber;
 	}
-	
+
 	public String getPacketNumberToString()
 	{
 		return "" + ((packetNumber < 10) ? "0" + packetNumber : packetNumber);
 	}
-	
-	public String getContentType()
+
+	public ContentType getContentType()
 	{
 		return contentType;
 	}
-	
+
+	public int getDestinationHostID()
+	{
+		return destinationHostID;
+	}
+
+	public int getSourceHostID()
+	{
+		return sourceHostID;
+	}
+
 	public String getDestinationHostName()
 	{
+		if(destinationHostName == null) destinationHostName = PacketCodec.idToName(destinationHostID);
 		return destinationHostName;
 	}
-	
+
 	public String getSourceHostName()
 	{
+		if(sourceHostName == null) sourceHostName = PacketCodec.idToName(sourceHostID);
 		return sourceHostName;
 	}
-	
+
 	public String getPacketContent()
 	{
-		return content;
+		if(contentString == null) contentString = PacketCodec.decodeContent(content);
+		return contentString;
 	}
-	
+
 	public boolean isValid()
 	{
 		return validPacket;
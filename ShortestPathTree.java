@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *
+ * ShortestPathTree class
+ *
+ * The result of Dijkstra's algorithm from one router: the shortest distance to every other
+ * router, the router before it on that path, and which of the source router's neighbours
+ * (the first hop, or "path out") to send packets to in order to get there.
+ *
+ * When the topology changes, update() repairs the tree rather than it being worked out again
+ * from scratch. Only the routers whose shortest path actually changes are looked at, which
+ * when one router joins or one link changes is usually a small part of the network.
+ *
+ * A router asking for the way to one host only needs the tree as far as that host's router,
+ * so computeTowards() stops there. That gives an incomplete tree, which only has the routers
+ * that are no further away than the one asked for.
+ */
+public final class ShortestPathTree {
+	static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	TopologyGraph graph;
+	final int source;
+	int[] distance;
+	int[] firstHop;		// -1 if unreachable; the source's own first hop is itself
+	int[] parent;		// -1 for the source, and if unreachable
+	boolean complete = true;	// false if only worked out as far as one router
+
+	// The flow chart made from this tree, and the topology version it was made at
+	private String flowChart;
+	private long flowChartVersion = -1;
+
+	private ShortestPathTree(TopologyGraph graph, int source)
+	{
+		this.graph = graph;
+		this.source = source;
+		distance = new int[0];
+		firstHop = new int[0];
+		parent = new int[0];
+		grow(graph.getRouterCount());
+	}
+
+	// The heap is only working space, so one can be kept and passed in every time
+	static ShortestPathTree compute(TopologyGraph graph, int source, IndexedMinHeap heap)
+	{
+		ShortestPathTree tree = new ShortestPathTree(graph, source);
+		tree.distance[source] = 0;
+		tree.firstHop[source] = source;
+
+		heap.reset(graph.getRouterCount());
+		heap.insertOrDecrease(source, 0);
+		tree.propagate(heap);
+		return tree;
+	}
+
+	// Like compute(), but stops as soon as the shortest path to target is known. Every router
+	// taken off the heap before then already has its final path, the same one compute() would
+	// give it, but the ones still on the heap might not, so they are left out of the tree.
+	static ShortestPathTree computeTowards(TopologyGraph graph, int source, int target, IndexedMinHeap heap)
+	{
+		ShortestPathTree tree = new ShortestPathTree(graph, source);
+		tree.distance[source] = 0;
+		tree.firstHop[source] = source;
+
+		heap.reset(graph.getRouterCount());
+		heap.insertOrDecrease(source, 0);
+		while(!heap.isEmpty())
+		{
+			int router = heap.poll();
+			tree.relaxLinks(router, heap);
+			if(router == target)
+			{
+				// Nothing left on the heap means every router we can reach has been looked at
+				tree.complete = heap.isEmpty();
+				while(!heap.isEmpty())
+				{
+					int unfinished = heap.poll();
+					tree.distance[unfinished] = UNREACHABLE;
+					tree.firstHop[unfinished] = -1;
+					tree.parent[unfinished] = -1;
+				}
+				break;
+			}
+		}
+		return tree;
+	}
+
+	/*
+	 * Brings the tree up to date with newGraph, where changes are the links that are different
+	 * from the graph the tree was last worked out over.
+	 *
+	 * A link that was removed or got longer only matters if the tree uses it. If it does, every
+	 * router below it in the tree has lost its path, so they are all marked unreachable, and each
+	 * is given the best path it has through a router that wasn't affected. A link that was added
+	 * or got shorter only matters if it gives the router it goes to a shorter path. Dijkstra's
+	 * algorithm is then carried on from all of those routers at once, spreading the new paths
+	 * out only as far as they are an improvement.
+	 */
+	void update(TopologyGraph newGraph, ArrayList<TopologyGraph.LinkChange> changes, IndexedMinHeap heap)
+	{
+		int routerCount = newGraph.getRouterCount();
+		grow(routerCount);
+		graph = newGraph;
+		heap.reset(routerCount);
+
+		boolean[] affected = null;
+		int[] childStart = null;
+		int[] children = null;
+		int[] stack = null;
+		for(TopologyGraph.LinkChange change : changes)
+		{
+			if(change.newDistance > change.oldDistance && parent[change.to] == change.from)
+			{
+				if(affected == null)
+				{
+					affected = new boolean[routerCount];
+					childStart = new int[routerCount + 1];
+					children = childrenOf(routerCount, childStart);
+					stack = new int[routerCount];
+				}
+				markSubtree(change.to, affected, childStart, children, stack);
+			}
+		}
+
+		if(affected != null)
+		{
+			for(int router = 0; router < routerCount; router++)
+			{
+				if(!affected[router]) continue;
+				distance[router] = UNREACHABLE;
+				firstHop[router] = -1;
+				parent[router] = -1;
+			}
+			for(int router = 0; router < routerCount; router++)
+			{
+				if(!affected[router]) continue;
+				for(int edge = graph.inEdgeStart[router]; edge < graph.inEdgeStart[router + 1]; edge++)
+				{
+					int from = graph.inEdgeSource[edge];
+					if(affected[from] || distance[from] == UNREACHABLE) continue;
+					relax(from, router, graph.inEdgeDistance[edge], heap);
+				}
+			}
+		}
+
+		for(TopologyGraph.LinkChange change : changes)
+		{
+			if(change.newDistance < change.oldDistance && distance[change.from] != UNREACHABLE)
+				relax(change.from, change.to, change.newDistance, heap);
+		}
+
+		propagate(heap);
+	}
+
+	// Dijkstra's algorithm, from whichever routers are on the heap
+	private void propagate(IndexedMinHeap heap)
+	{
+		while(!heap.isEmpty())
+			relaxLinks(heap.poll(), heap);
+	}
+
+	private void relaxLinks(int router, IndexedMinHeap heap)
+	{
+		for(int edge = graph.edgeStart[router]; edge < graph.edgeStart[router + 1]; edge++)
+			relax(router, graph.edgeTarget[edge], graph.edgeDistance[edge], heap);
+	}
+
+	private void relax(int router, int neighbour, int linkDistance, IndexedMinHeap heap)
+	{
+		int newDistance = distance[router] + linkDistance;
+		if(newDistance < distance[neighbour])
+		{
+			// The source's own neighbours are their own path out; everything further
+			// away is reached through whichever neighbour the path started with
+			distance[neighbour] = newDistance;
+			parent[neighbour] = router;
+			firstHop[neighbour] = (router == source) ? neighbour : firstHop[router];
+			heap.insertOrDecrease(neighbour, newDistance);
+		}
+	}
+
+	// Routers that have joined since are unreachable until a link to them is found
+	private void grow(int routerCount)
+	{
+		int oldCount = distance.length;
+		if(routerCount <= oldCount) return;
+		distance = Arrays.copyOf(distance, routerCount);
+		firstHop = Arrays.copyOf(firstHop, routerCount);
+		parent = Arrays.copyOf(parent, routerCount);
+		Arrays.fill(distance, oldCount, routerCount, UNREACHABLE);
+		Arrays.fill(firstHop, oldCount, routerCount, -1);
+		Arrays.fill(parent, oldCount, routerCount, -1);
+	}
+
+	// The routers each router is the parent of, which are children[childStart[i] .. childStart[i+1])
+	private int[] childrenOf(int routerCount, int[] childStart)
+	{
+		for(int router = 0; router < routerCount; router++)
+			if(parent[router] >= 0) childStart[parent[router] + 1]++;
+		for(int router = 0; router < routerCount; router++)
+			childStart[router + 1] += childStart[router];
+		int[] children = new int[childStart[routerCount]];
+		int[] next = childStart.clone();
+		for(int router = 0; router < routerCount; router++)
+			if(parent[router] >= 0) children[next[parent[router]]++] = router;
+		return children;
+	}
+
+	private static void markSubtree(int root, boolean[] affected, int[] childStart, int[] children, int[] stack)
+	{
+		if(affected[root]) return;
+		int top = 0;
+		stack[top++] = root;
+		affected[root] = true;
+		while(top > 0)
+		{
+			int router = stack[--top];
+			for(int i = childStart[router]; i < childStart[router + 1]; i++)
+			{
+				int child = children[i];
+				if(affected[child]) continue;
+				affected[child] = true;
+				stack[top++] = child;
+			}
+		}
+	}
+
+	boolean isFlowChartCurrent()
+	{
+		return flowChart != null && flowChartVersion == graph.version;
+	}
+
+	// The FLWMD string for the source router, [host1Name][routerToAccessHost1]..., leaving out
+	// any hosts it has no path to yet. Only made again when the topology has changed.
+	String getFlowChart()
+	{
+		if(isFlowChartCurrent()) return flowChart;
+		StringBuilder newFlowChart = new StringBuilder();
+		for(int i = 0; i < graph.hostNames.length; i++)
+		{
+			int hostRouter = graph.hostRouter[i];
+			if(hostRouter >= 0 && firstHop[hostRouter] >= 0)
+				newFlowChart.append(graph.hostNames[i]).append(graph.routerNames[firstHop[hostRouter]]);
+		}
+		flowChart = newFlowChart.toString();
+		flowChartVersion = graph.version;
+		return flowChart;
+	}
+}
@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+
+/**
+ *
+ * Simulation class
+ *
+ * Starts a whole network inside one JVM, rather than a process for every node: the Controller,
+ * a Router for every router in a Topology, and a Host for every host. Each node still has its
+ * own port on localhost and talks to the others over UDP, exactly as it would in its own
+ * process. The Controller is on simulation.basePort, router i on basePort + 1 + i, and the host
+ * connected to router i on basePort + 1 + routerCount + i. Every node logs to the same EventLog,
+ * on standard output.
+ *
+ *	java Simulation topology.txt [seconds]
+ *
+ * runs until it is stopped, or for that many seconds. For hundreds of nodes, run it with
+ * -Dnode.transport=channel, so they all share one Selector thread instead of having a
+ * listener thread each.
+ */
+public class Simulation {
+	static final int BASE_PORT = Integer.getInteger("simulation.basePort", Controller.Controller_SRC_PORT);
+
+	final Topology topology;
+	final EventLog log;
+	final int basePort;
+	Controller controller;
+	final ArrayList<Router> routers = new ArrayList<Router>();
+	final ArrayList<Host> hosts = new ArrayList<Host>();
+
+	Simulation(Topology topology, EventLog log, int basePort)
+	{
+		this.topology = topology;
+		this.log = log;
+		this.basePort = basePort;
+	}
+
+	int routerPort(int router)
+	{
+		return basePort + 1 + router;
+	}
+
+	int hostPort(int router)
+	{
+		return basePort + 1 + topology.getRouterCount() + router;
+	}
+
+	// Every node is created (and so has its port open) before any of them are started, so that
+	// nothing is sent to a port that isn't listening yet
+	void start()
+	{
+		controller = new Controller(log, Controller.DEFAULT_DST_NODE, basePort);
+
+		for(int i = 0; i < topology.getRouterCount(); i++)
+			routers.add(new Router(log, routerArguments(i), basePort));
+
+		String[] allHostNames = topology.getHostNames();
+		for(int i = 0; i < topology.getRouterCount(); i++)
+		{
+			String hostName = topology.hostNames.get(i);
+			if(hostName != null)
+				hosts.add(new Host(log, hostName, allHostNames, hostPort(i), routerPort(i)));
+		}
+
+		new NodeThread("Controller", controller).start();
+		for(int i = 0; i < routers.size(); i++)
+			new NodeThread(topology.routerNames.get(i), routers.get(i)).start();
+		for(Host host : hosts)
+			new NodeThread(host.hostName, host).start();
+	}
+
+	// The same arguments the router would have been started with on the command line:
+	// [name][port][hostName][hostPort][router1name][router1port][router1distance]...
+	String[] routerArguments(int router)
+	{
+		ArrayList<String> arguments = new ArrayList<String>();
+		arguments.add(topology.routerNames.get(router));
+		arguments.add("" + routerPort(router));
+		String hostName = topology.hostNames.get(router);
+		arguments.add((hostName == null) ? SNDContent.NO_NODE : hostName);
+		arguments.add("" + ((hostName == null) ? 0 : hostPort(router)));
+		for(Topology.Link link : topology.links)
+		{
+			int neighbour;
+			if(link.from == router) neighbour = link.to;
+			else if(link.to == router) neighbour = link.from;
+			else continue;
+			arguments.add(topology.routerNames.get(neighbour));
+			arguments.add("" + routerPort(neighbour));
+			arguments.add("" + link.distance);
+		}
+		return arguments.toArray(new String[0]);
+	}
+
+	/**
+	 *
+	 * NodeThread class
+	 *
+	 * Runs one node's start(), which never returns.
+	 */
+	static class NodeThread extends Thread {
+		private final Node node;
+
+		NodeThread(String name, Node node)
+		{
+			super(name);
+			this.node = node;
+		}
+
+		public void run()
+		{
+			try {
+				node.start();
+			} catch (Exception e) { e.printStackTrace(); }
+		}
+	}
+
+	public static void main(String[] args) {
+		try {
+			Simulation simulation = new Simulation(Topology.load(args[0]), EventLog.openConsole(), BASE_PORT);
+			simulation.start();
+			if(args.length > 1)
+			{
+				Thread.sleep(Long.parseLong(args[1]) * 1000);
+				System.exit(0);
+			}
+		} catch(java.lang.Exception e) { e.printStackTrace(); }
+	}
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * SocketTransport class
+ *
+ * The original transport: one blocking DatagramSocket, and a listener thread that receives
+ * each packet into a pooled buffer and passes it on to the node.
+ */
+public class SocketTransport extends Transport {
+	// How many receive buffers the listener keeps, e.g. -Dnode.receiveBuffers=8
+	static final int RECEIVE_BUFFERS = Integer.getInteger("node.receiveBuffers", 4);
+
+	private final DatagramSocket socket;
+	private final PacketBufferPool receiveBuffers;
+
+	SocketTransport(int port) throws SocketException
+	{
+		socket = new DatagramSocket(port);
+		receiveBuffers = new PacketBufferPool(RECEIVE_BUFFERS, PACKETSIZE);
+	}
+
+	public void start(Node receiver)
+	{
+		Listener listener = new Listener(receiver);
+		listener.setDaemon(true);
+		listener.start();
+	}
+
+	public void send(DatagramPacket packet) throws IOException
+	{
+		socket.send(packet);
+	}
+
+	public void close()
+	{
+		socket.close();
+	}
+
+	/**
+	 *
+	 * Listener thread
+	 *
+	 * Listens for incoming packets on a datagram socket and informs registered
+	 * receivers about incoming packets.
+	 */
+	class Listener extends Thread {
+		private final Node receiver;
+
+		Listener(Node receiver)
+		{
+			this.receiver = receiver;
+		}
+
+		public void run() { 		//Listen for incoming packets and inform receivers
+			try
+			{
+				while (true) 		// Endless loop: attempt to receive packet, notify receivers, etc
+				{
+					DatagramPacket packet = receiveBuffers.acquire();
+					try
+					{
+						socket.receive(packet);
+						receiver.onReceipt(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()),
+								(InetSocketAddress) packet.getSocketAddress());
+					}
+					finally
+					{
+						// onReceipt() copies out anything it keeps, so the buffer can be reused
+						receiveBuffers.release(packet);
+					}
+				}
+
+			}
+			catch (Exception e)
+			{
+				if (!(e instanceof SocketException)) e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,23 @@
+import tcdIO.*;
+
+/**
+ *
+ * TerminalLogSink class
+ *
+ * Shows the log in a tcdIO Terminal window, the way every node used to print everything.
+ */
+public class TerminalLogSink implements LogSink {
+	private final Terminal terminal;
+
+	TerminalLogSink(Terminal terminal)
+	{
+		this.terminal = terminal;
+	}
+
+	public void write(String line)
+	{
+		terminal.println(line);
+	}
+
+	public void flush() {}
+}
@@ -1,25 +1,113 @@
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.util.TimerTask;
-import java.net.DatagramSocket;
 
-public class TimerFlowControl extends TimerTask {
+// Keeps track of one packet that has been sent but not yet ACKed, and resends it each time its
+// timeout on the shared RetransmissionScheduler runs out. How long to wait comes from the link's
+// RoundTripEstimator, which doubles the timeout once for each round of resends.
 
-	DatagramSocket hostSocket;
+public class TimerFlowControl implements Runnable {
+
+	Transport hostSocket;
 	DatagramPacket packetToResend;
+	RoundTripEstimator roundTrip;
+	LinkStatistics statistics;	// resends are counted here
+	NodeData link;				// told each time the packet times out
+	long firstSentNanos;
+	long lastSentNanos;
+	long deadlineNanos;			// when the current timeout runs out
+	boolean retransmitted;		// once resent, the packet can't be used as an RTT sample
+	boolean acknowledged;
+	RetransmissionScheduler.Timeout timeout;
+	int timeoutVersion;			// the version of the link's timeout the current timeout was set from
 
-	public TimerFlowControl(DatagramSocket hostSocket, DatagramPacket packetToResend) {
+	public TimerFlowControl(Transport hostSocket, DatagramPacket packetToResend, RoundTripEstimator roundTrip,
+			LinkStatistics statistics, NodeData link) {
 		this.hostSocket = hostSocket;
 		this.packetToResend = packetToResend;
-		
+		this.roundTrip = roundTrip;
+		this.statistics = statistics;
+		this.link = link;
+	}
+
+	// Sends the packet for the first time, and starts its timeout
+	public void start() {
+		firstSentNanos = System.nanoTime();
+		lastSentNanos = firstSentNanos;
+		send();
+		schedule(roundTrip.getTimeoutVersion(), roundTrip.getTimeoutMillis());
+	}
+
+	// Returns true if the packet is being ACKed for the first time and was never resent,
+	// i.e. it can be used as a round trip sample
+	public synchronized boolean acknowledge() {
+		if(acknowledged) return false;
+		acknowledged = true;
+		if(timeout != null) timeout.cancel();
+		return !retransmitted;
+	}
+
+	public synchronized boolean isAcknowledged() {
+		return acknowledged;
 	}
 
+	// The packet is resent while holding the lock, so once acknowledge() has returned it can't go
+	// out again. A resend held up between the check and the send could otherwise turn up after
+	// the window has moved a whole sequence space on, and be taken for a newer packet.
 	@Override
 	public void run() {
+		synchronized(this) {
+			if(acknowledged) return;
+			retransmitted = true;
+			timeout = null;		// it has run out, so there is nothing to bring forward until it's rescheduled
+			lastSentNanos = System.nanoTime();
+			roundTrip.packetResent(lastSentNanos);
+			statistics.retransmissions.increment();
+			send();
+		}
+		long delay = roundTrip.backOff(timeoutVersion);
+		schedule(roundTrip.getTimeoutVersion(), delay);
+		link.timedOut(this);
+	}
+
+	// Resends the packet straight away, as part of Go-Back-N resending the rest of the window
+	// after another packet timed out, and starts its timeout again. The timeout isn't backed off
+	// a second time for it, since the packet that timed out has done that already.
+	public synchronized void resend() {
+		if(acknowledged) return;
+		if(timeout != null) timeout.cancel();
+		retransmitted = true;
+		lastSentNanos = System.nanoTime();
+		roundTrip.packetResent(lastSentNanos);
+		statistics.retransmissions.increment();
+		send();
+		schedule(roundTrip.getTimeoutVersion(), roundTrip.getTimeoutMillis());
+	}
+
+	// If the link's timeout changes between reading the delay and the version, the worst that
+	// can happen is that this packet backs it off once more or once less than it should
+	private synchronized void schedule(int version, long delay) {
+		if(acknowledged) return;
+		timeoutVersion = version;
+		deadlineNanos = System.nanoTime() + delay * 1000000L;
+		timeout = RetransmissionScheduler.getScheduler().schedule(this, delay, 0);
+	}
+
+	// Brings the timeout forward to delay after the packet was last sent, if it is further off
+	// than that. A packet resent while the link's timeout was backed off would otherwise go on
+	// waiting out the longer timeout after an ACK has brought it back down.
+	public synchronized void shortenTimeout(int version, long delay) {
+		if(acknowledged || timeout == null) return;
+		long newDeadlineNanos = lastSentNanos + delay * 1000000L;
+		if(newDeadlineNanos >= deadlineNanos) return;
+		timeout.cancel();
+		schedule(version, Math.max(0, (newDeadlineNanos - System.nanoTime()) / 1000000L));
+	}
+
+	private void send() {
 		try {
 			hostSocket.send(packetToResend);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ *
+ * Topology class
+ *
+ * A description of a whole network, for a Simulation to start: every router, the host
+ * connected to it (if any), and the links between routers. It can be read from a file, one
+ * router or link per line, with anything after a # ignored:
+ *
+ *	router R1 H1		a router, and the host connected to it
+ *	router R3			a router with no host
+ *	link R1 R3 1		a link both ways between two routers, and its distance
+ *
+ * Names have to be two characters long (that is all a packet has room for), and distances
+ * have to be from 1 to 99 (the most a FeatureReply has room for).
+ */
+public class Topology {
+	static final int MAX_DISTANCE = 99;
+
+	final ArrayList<String> routerNames = new ArrayList<String>();
+	final ArrayList<String> hostNames = new ArrayList<String>();		// null where a router has no host
+	final ArrayList<Link> links = new ArrayList<Link>();
+	private final HashMap<String, Integer> routerIndexes = new HashMap<String, Integer>();
+	private final HashMap<String, Integer> hostIndexes = new HashMap<String, Integer>();
+	private final HashSet<Long> linkedRouters = new HashSet<Long>();
+
+	/**
+	 *
+	 * Link class
+	 *
+	 * A link between two routers, which goes both ways and is the same distance either way.
+	 */
+	static final class Link {
+		final int from;
+		final int to;
+		final int distance;
+
+		Link(int from, int to, int distance)
+		{
+			this.from = from;
+			this.to = to;
+			this.distance = distance;
+		}
+	}
+
+	// hostName may be null, for a router without a host. Returns the router's index.
+	int addRouter(String routerName, String hostName)
+	{
+		checkName(routerName);
+		if(routerIndexes.containsKey(routerName) || hostIndexes.containsKey(routerName))
+			throw new IllegalArgumentException("The name " + routerName + " is used twice");
+		if(hostName != null)
+		{
+			checkName(hostName);
+			if(routerIndexes.containsKey(hostName) || hostIndexes.containsKey(hostName) || hostName.equals(routerName))
+				throw new IllegalArgumentException("The name " + hostName + " is used twice");
+			hostIndexes.put(hostName, routerNames.size());
+		}
+		routerIndexes.put(routerName, routerNames.size());
+		routerNames.add(routerName);
+		hostNames.add(hostName);
+		return routerNames.size() - 1;
+	}
+
+	void addLink(String fromRouter, String toRouter, int distance)
+	{
+		Integer from = routerIndexes.get(fromRouter);
+		Integer to = routerIndexes.get(toRouter);
+		if(from == null || to == null)
+			throw new IllegalArgumentException("A link has to be between two routers that have already been named");
+		addLink(from, to, distance);
+	}
+
+	void addLink(int from, int to, int distance)
+	{
+		if(from == to)
+			throw new IllegalArgumentException("A router can't have a link to itself");
+		if(distance < 1 || distance > MAX_DISTANCE)
+			throw new IllegalArgumentException("Distances have to be from 1 to " + MAX_DISTANCE);
+		if(!linkedRouters.add(((long) Math.min(from, to) << 32) | Math.max(from, to)))
+			throw new IllegalArgumentException("There is already a link between " + routerNames.get(from) + " and " + routerNames.get(to));
+		links.add(new Link(from, to, distance));
+	}
+
+	private static void checkName(String name)
+	{
+		if(name.length() != 2 || name.equals(SNDContent.NO_NODE))
+			throw new IllegalArgumentException("Names have to be two characters, and not " + SNDContent.NO_NODE + ": " + name);
+		for(int i = 0; i < name.length(); i++)
+		{
+			if(name.charAt(i) <= ' ' || name.charAt(i) > '~' || name.charAt(i) == '#')
+				throw new IllegalArgumentException("Names can only have printable characters other than # in them: " + name);
+		}
+	}
+
+	boolean hasLink(int from, int to)
+	{
+		return linkedRouters.contains(((long) Math.min(from, to) << 32) | Math.max(from, to));
+	}
+
+	int getRouterCount()
+	{
+		return routerNames.size();
+	}
+
+	// The names of every host, in the order their routers were added
+	String[] getHostNames()
+	{
+		ArrayList<String> names = new ArrayList<String>();
+		for(String hostName : hostNames)
+			if(hostName != null) names.add(hostName);
+		return names.toArray(new String[0]);
+	}
+
+	// In the same form read() takes
+	void write(PrintWriter writer)
+	{
+		for(int i = 0; i < routerNames.size(); i++)
+			writer.println("router " + routerNames.get(i) + ((hostNames.get(i) == null) ? "" : " " + hostNames.get(i)));
+		for(Link link : links)
+			writer.println("link " + routerNames.get(link.from) + " " + routerNames.get(link.to) + " " + link.distance);
+		writer.flush();
+	}
+
+	static Topology load(String fileName) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			return read(reader);
+		} finally { reader.close(); }
+	}
+
+	static Topology read(BufferedReader reader) throws IOException
+	{
+		Topology topology = new Topology();
+		int lineNumber = 0;
+		String line;
+		while((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			int comment = line.indexOf('#');
+			if(comment >= 0) line = line.substring(0, comment);
+			String[] words = line.trim().split("\\s+");
+			if(words[0].isEmpty()) continue;
+			try {
+				if(words[0].equals("router") && (words.length == 2 || words.length == 3))
+					topology.addRouter(words[1], (words.length == 3) ? words[2] : null);
+				else if(words[0].equals("link") && words.length == 4)
+					topology.addLink(words[1], words[2], Integer.parseInt(words[3]));
+				else
+					throw new IllegalArgumentException("Expected \"router NAME [HOST]\" or \"link FROM TO DISTANCE\"");
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+		return topology;
+	}
+}
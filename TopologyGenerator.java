@@ -0,0 +1,266 @@
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * TopologyGenerator class
+ *
+ * Makes Topology descriptions of networks far too big to write out by hand, in one of four shapes:
+ *
+ *   ring		every router linked to the next one, and the last one back to the first
+ *   grid		routers in rows, as near to square as possible, each linked to the routers beside,
+ *				above and below it
+ *   geometric	routers at random points in a square, each linked to every router within a set
+ *				radius of it, with closer routers having shorter links. If that leaves the network
+ *				in pieces, the closest routers in different pieces are linked until it isn't.
+ *   scalefree	routers added one at a time, each linked to generator.scaleFreeLinks of the routers
+ *				already there, picked in proportion to how many links they have already (the
+ *				Barabasi-Albert model). A few routers end up with a lot of links, and most with few.
+ *
+ * The hosts are spread evenly over the routers, one per router at most. Except for geometric
+ * networks, each link is a random distance from 1 to generator.maxDistance.
+ *
+ *	java TopologyGenerator KIND ROUTERS [HOSTS] [SEED]
+ *
+ * writes the topology file to standard output, for Simulation. With -Dgenerator.format=args it
+ * writes the command line each node would be started with by hand instead (see Router.main()).
+ * Host.main() only sends to hosts named H1 to H9, so that is only useful up to 9 hosts.
+ */
+public class TopologyGenerator {
+	static final int MAX_DISTANCE = Math.min(Topology.MAX_DISTANCE, Integer.getInteger("generator.maxDistance", 9));
+	static final int SCALE_FREE_LINKS = Integer.getInteger("generator.scaleFreeLinks", 2);
+
+	// The characters names are made from, in this order so that the first nine hosts are H1 to
+	// H9, as Host names them by default. '#' starts a comment in a topology file, so isn't used.
+	static final String NAME_CHARACTERS = nameCharacters();
+
+	// Names are a letter and one character while there are few enough routers, and any two
+	// characters after that. The first character is never '0', so no name can be "00".
+	static final int MAX_ROUTERS = NAME_CHARACTERS.indexOf('0') * NAME_CHARACTERS.length() / 2;
+
+	private static String nameCharacters()
+	{
+		StringBuilder characters = new StringBuilder("123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0");
+		for(char c = '!'; c <= '~'; c++)
+		{
+			if(c != '#' && characters.indexOf("" + c) < 0) characters.append(c);
+		}
+		return characters.toString();
+	}
+
+	static Topology generate(String kind, int routers, int hosts, long seed)
+	{
+		if(routers < 1 || routers > MAX_ROUTERS)
+			throw new IllegalArgumentException("There can be from 1 to " + MAX_ROUTERS + " routers");
+		hosts = Math.max(0, Math.min(hosts, routers));
+		Random random = new Random(seed);
+
+		Topology topology = new Topology();
+		boolean shortNames = routers <= NAME_CHARACTERS.length();
+		for(int i = 0, host = 0; i < routers; i++)
+		{
+			// Router i has a host if that takes the number of hosts so far up by one
+			String hostName = null;
+			if((long) (i + 1) * hosts / routers > (long) i * hosts / routers)
+			{
+				hostName = shortNames ? "H" + NAME_CHARACTERS.charAt(host) : twoCharacterName(routers + host);
+				host++;
+			}
+			topology.addRouter(shortNames ? "R" + NAME_CHARACTERS.charAt(i) : twoCharacterName(i), hostName);
+		}
+
+		if(kind.equals("ring"))
+			ring(topology, random);
+		else if(kind.equals("grid"))
+			grid(topology, random);
+		else if(kind.equals("geometric"))
+			randomGeometric(topology, random);
+		else if(kind.equals("scalefree"))
+			scaleFree(topology, random);
+		else
+			throw new IllegalArgumentException("Unknown kind of network " + kind + ", expected ring, grid, geometric or scalefree");
+		return topology;
+	}
+
+	private static String twoCharacterName(int index)
+	{
+		int base = NAME_CHARACTERS.length();
+		return "" + NAME_CHARACTERS.charAt(index / base) + NAME_CHARACTERS.charAt(index % base);
+	}
+
+	private static int randomDistance(Random random)
+	{
+		return 1 + random.nextInt(MAX_DISTANCE);
+	}
+
+	private static void ring(Topology topology, Random random)
+	{
+		int routers = topology.getRouterCount();
+		for(int i = 0; i < routers; i++)
+		{
+			int next = (i + 1) % routers;
+			if(next != i && !topology.hasLink(i, next)) topology.addLink(i, next, randomDistance(random));
+		}
+	}
+
+	private static void grid(Topology topology, Random random)
+	{
+		int routers = topology.getRouterCount();
+		int width = (int) Math.ceil(Math.sqrt(routers));
+		for(int i = 0; i < routers; i++)
+		{
+			if(i % width != width - 1 && i + 1 < routers) topology.addLink(i, i + 1, randomDistance(random));
+			if(i + width < routers) topology.addLink(i, i + width, randomDistance(random));
+		}
+	}
+
+	private static void randomGeometric(Topology topology, Random random)
+	{
+		int routers = topology.getRouterCount();
+		double[] x = new double[routers];
+		double[] y = new double[routers];
+		for(int i = 0; i < routers; i++)
+		{
+			x[i] = random.nextDouble();
+			y[i] = random.nextDouble();
+		}
+
+		// Twice the radius at which a random geometric graph usually starts being connected,
+		// so there are few pieces to join up afterwards. A link as long as the radius gets the
+		// largest distance.
+		double radius = Math.sqrt(2 * Math.log(Math.max(routers, 2)) / (Math.PI * routers));
+		int[] piece = new int[routers];
+		for(int i = 0; i < routers; i++) piece[i] = i;
+		for(int i = 0; i < routers; i++)
+		{
+			for(int j = i + 1; j < routers; j++)
+			{
+				double length = Math.hypot(x[i] - x[j], y[i] - y[j]);
+				if(length > radius) continue;
+				topology.addLink(i, j, geometricDistance(length, radius));
+				piece[findPiece(piece, i)] = findPiece(piece, j);
+			}
+		}
+
+		// Joins the other pieces on to router 0's one at a time, closest first (Prim's algorithm,
+		// with each piece added whole)
+		boolean[] joined = new boolean[routers];
+		double[] closest = new double[routers];
+		int[] closestFrom = new int[routers];
+		Arrays.fill(closest, Double.MAX_VALUE);
+		ArrayList<Integer> newlyJoined = new ArrayList<Integer>();
+		int root = findPiece(piece, 0);
+		for(int i = 0; i < routers; i++)
+			if(findPiece(piece, i) == root) newlyJoined.add(i);
+		while(true)
+		{
+			for(int from : newlyJoined) joined[from] = true;
+			for(int from : newlyJoined)
+			{
+				for(int i = 0; i < routers; i++)
+				{
+					if(joined[i]) continue;
+					double length = Math.hypot(x[i] - x[from], y[i] - y[from]);
+					if(length < closest[i])
+					{
+						closest[i] = length;
+						closestFrom[i] = from;
+					}
+				}
+			}
+			newlyJoined.clear();
+
+			int next = -1;
+			for(int i = 0; i < routers; i++)
+				if(!joined[i] && (next < 0 || closest[i] < closest[next])) next = i;
+			if(next < 0) break;
+			topology.addLink(closestFrom[next], next, geometricDistance(closest[next], radius));
+			int nextPiece = findPiece(piece, next);
+			for(int i = 0; i < routers; i++)
+				if(!joined[i] && findPiece(piece, i) == nextPiece) newlyJoined.add(i);
+		}
+	}
+
+	private static int geometricDistance(double length, double radius)
+	{
+		return Math.min(Topology.MAX_DISTANCE, 1 + (int) (length / radius * (MAX_DISTANCE - 1)));
+	}
+
+	private static int findPiece(int[] piece, int router)
+	{
+		while(piece[router] != router)
+		{
+			piece[router] = piece[piece[router]];
+			router = piece[router];
+		}
+		return router;
+	}
+
+	private static void scaleFree(Topology topology, Random random)
+	{
+		int routers = topology.getRouterCount();
+		int linksPerRouter = Math.max(1, SCALE_FREE_LINKS);
+
+		// Every link's two routers are added to this list, so picking a random entry picks a
+		// router in proportion to how many links it has. The first few routers are all linked
+		// to each other to start with.
+		ArrayList<Integer> linkEnds = new ArrayList<Integer>();
+		int initial = Math.min(routers, linksPerRouter + 1);
+		for(int i = 0; i < initial; i++)
+		{
+			for(int j = i + 1; j < initial; j++)
+			{
+				topology.addLink(i, j, randomDistance(random));
+				linkEnds.add(i);
+				linkEnds.add(j);
+			}
+		}
+		for(int i = initial; i < routers; i++)
+		{
+			int added = 0;
+			while(added < linksPerRouter)
+			{
+				int to = linkEnds.get(random.nextInt(linkEnds.size()));
+				if(topology.hasLink(i, to)) continue;
+				topology.addLink(i, to, randomDistance(random));
+				linkEnds.add(to);
+				added++;
+			}
+			for(int link = 0; link < linksPerRouter; link++) linkEnds.add(i);
+		}
+	}
+
+	// Each node's command line, if it were started on its own (all on their default ports)
+	static void writeCommandLines(Topology topology, PrintWriter writer)
+	{
+		Simulation simulation = new Simulation(topology, null, Controller.Controller_SRC_PORT);
+		String[] allHostNames = topology.getHostNames();
+		writer.println("java Controller");
+		for(int i = 0; i < topology.getRouterCount(); i++)
+			writer.println("java Router " + String.join(" ", simulation.routerArguments(i)));
+		for(int i = 0; i < topology.getRouterCount(); i++)
+		{
+			if(topology.hostNames.get(i) != null)
+				writer.println("java Host " + topology.hostNames.get(i) + " " + allHostNames.length + " "
+						+ simulation.hostPort(i) + " " + simulation.routerPort(i));
+		}
+		writer.flush();
+	}
+
+	public static void main(String[] args) {
+		try {
+			int routers = Integer.parseInt(args[1]);
+			int hosts = (args.length > 2) ? Integer.parseInt(args[2]) : routers;
+			long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+			Topology topology = generate(args[0], routers, hosts, seed);
+
+			PrintWriter writer = new PrintWriter(System.out);
+			if("args".equals(System.getProperty("generator.format")))
+				writeCommandLines(topology, writer);
+			else
+				topology.write(writer);
+		} catch(java.lang.Exception e) { e.printStackTrace(); }
+	}
+}
@@ -0,0 +1,166 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ *
+ * TopologyGraph class
+ *
+ * The network as the Controller knows it, laid out for running Dijkstra's algorithm over.
+ * Every router is given an index, and the links out of router i are held in
+ * edgeTarget[] and edgeDistance[], from edgeStart[i] up to edgeStart[i+1] (compressed
+ * sparse rows), so finding a router's neighbours is an array lookup instead of a search
+ * through allRouters by name. The links into each router are held the same way, for
+ * repairing shortest path trees when a link they use is removed.
+ *
+ * Routers named by another router's FeatureReply, but which haven't sent their own yet, are
+ * in the graph too. Like before, paths can reach them but never go through them, since we
+ * don't know their links yet.
+ *
+ * A router keeps the same index in every graph built afterwards (ControllerFlowTable hands
+ * them out), so a ShortestPathTree from an older graph still lines up with a newer one.
+ * A graph is never changed once it has been built. ControllerFlowTable builds a new one after
+ * the topology changes, so one graph can be read by any number of threads at once.
+ */
+public final class TopologyGraph {
+	final long version;				// the ControllerFlowTable topology version this was built from
+	final String[] routerNames;
+	final boolean[] registered;		// true if the router has sent us a FeatureReply
+	final int[] edgeStart;
+	final int[] edgeTarget;
+	final int[] edgeDistance;
+	final int[] inEdgeStart;
+	final int[] inEdgeSource;
+	final int[] inEdgeDistance;
+
+	// Each host, and the index of the router it is connected to, in the order they joined
+	final String[] hostNames;
+	final int[] hostRouter;
+
+	private final HashMap<String, Integer> routerIndexes;
+	private final HashMap<String, Integer> hostIndexes;
+
+	/**
+	 *
+	 * LinkChange class
+	 *
+	 * One link that was added, removed, or given a new distance between one graph and the
+	 * next. A link that doesn't exist has a distance of ShortestPathTree.UNREACHABLE.
+	 */
+	static final class LinkChange {
+		final int from;
+		final int to;
+		final int oldDistance;
+		final int newDistance;
+
+		LinkChange(int from, int to, int oldDistance, int newDistance)
+		{
+			this.from = from;
+			this.to = to;
+			this.oldDistance = oldDistance;
+			this.newDistance = newDistance;
+		}
+	}
+
+	private TopologyGraph(long version, String[] routerNames, boolean[] registered, int[] edgeStart, int[] edgeTarget,
+			int[] edgeDistance, int[] inEdgeStart, int[] inEdgeSource, int[] inEdgeDistance, String[] hostNames,
+			int[] hostRouter, HashMap<String, Integer> routerIndexes)
+	{
+		this.version = version;
+		this.routerNames = routerNames;
+		this.registered = registered;
+		this.edgeStart = edgeStart;
+		this.edgeTarget = edgeTarget;
+		this.edgeDistance = edgeDistance;
+		this.inEdgeStart = inEdgeStart;
+		this.inEdgeSource = inEdgeSource;
+		this.inEdgeDistance = inEdgeDistance;
+		this.hostNames = hostNames;
+		this.hostRouter = hostRouter;
+		this.routerIndexes = routerIndexes;
+		hostIndexes = new HashMap<String, Integer>();
+		for(int i = 0; i < hostNames.length; i++) hostIndexes.put(hostNames[i], i);
+	}
+
+	// routerNames and routerIndexes must already include every router in allRouters, and every
+	// router they name as a neighbour, and each router's routerIndex and linkTargets must be set
+	static TopologyGraph build(long version, ArrayList<String> routerNames, HashMap<String, Integer> routerIndexes,
+			ArrayList<ControllerFlowTable.DirectConnectionsPerRouter> allRouters,
+			ArrayList<String> allHostNames, ArrayList<String> givenHostsRouter)
+	{
+		int routerCount = routerNames.size();
+		ControllerFlowTable.DirectConnectionsPerRouter[] rows = new ControllerFlowTable.DirectConnectionsPerRouter[routerCount];
+		boolean[] registered = new boolean[routerCount];
+		int edgeCount = 0;
+		for(ControllerFlowTable.DirectConnectionsPerRouter router : allRouters)
+		{
+			rows[router.routerIndex] = router;
+			registered[router.routerIndex] = true;
+			edgeCount += router.distances.size();
+		}
+
+		int[] edgeStart = new int[routerCount + 1];
+		int[] edgeTarget = new int[edgeCount];
+		int[] edgeDistance = new int[edgeCount];
+		int[] inEdgeStart = new int[routerCount + 1];
+		int edge = 0;
+		for(int i = 0; i < routerCount; i++)
+		{
+			edgeStart[i] = edge;
+			if(rows[i] == null) continue;
+			for(int link = 0; link < rows[i].linkTargets.length; link++)
+			{
+				edgeTarget[edge] = rows[i].linkTargets[link];
+				edgeDistance[edge] = rows[i].distances.get(link).distance;
+				inEdgeStart[edgeTarget[edge] + 1]++;
+				edge++;
+			}
+		}
+		edgeStart[routerCount] = edge;
+
+		// The links into each router, grouped by the router they go into (a counting sort)
+		for(int i = 0; i < routerCount; i++) inEdgeStart[i + 1] += inEdgeStart[i];
+		int[] inEdgeSource = new int[edgeCount];
+		int[] inEdgeDistance = new int[edgeCount];
+		int[] inEdgeNext = inEdgeStart.clone();
+		for(int from = 0; from < routerCount; from++)
+		{
+			for(int e = edgeStart[from]; e < edgeStart[from + 1]; e++)
+			{
+				int slot = inEdgeNext[edgeTarget[e]]++;
+				inEdgeSource[slot] = from;
+				inEdgeDistance[slot] = edgeDistance[e];
+			}
+		}
+
+		String[] hostNames = allHostNames.toArray(new String[0]);
+		int[] hostRouter = new int[hostNames.length];
+		for(int i = 0; i < hostNames.length; i++)
+		{
+			Integer router = routerIndexes.get(givenHostsRouter.get(i));
+			hostRouter[i] = (router == null) ? -1 : router;
+		}
+
+		return new TopologyGraph(version, routerNames.toArray(new String[0]), registered, edgeStart, edgeTarget,
+				edgeDistance, inEdgeStart, inEdgeSource, inEdgeDistance, hostNames, hostRouter,
+				new HashMap<String, Integer>(routerIndexes));
+	}
+
+	int getRouterCount()
+	{
+		return routerNames.length;
+	}
+
+	// Returns -1 if no router has that name
+	int indexOf(String routerName)
+	{
+		Integer index = routerIndexes.get(routerName);
+		return (index == null) ? -1 : index;
+	}
+
+	// The index of the router a host is connected to, or -1 if we don't know the host
+	int routerOfHost(String hostName)
+	{
+		Integer host = hostIndexes.get(hostName);
+		return (host == null) ? -1 : hostRouter[host];
+	}
+}
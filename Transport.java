@@ -0,0 +1,37 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+/**
+ *
+ * Transport class
+ *
+ * Everything a node needs from the network: sending datagrams, and handing each one it
+ * receives to the node's onReceipt(). There are two implementations, and which one a node
+ * uses is picked with -Dnode.transport when it opens its port:
+ *   socket	 - SocketTransport, a blocking DatagramSocket with its own listener thread (default)
+ *   channel - ChannelTransport, a non-blocking DatagramChannel served by a shared Selector loop
+ */
+public abstract class Transport {
+	// Largest datagram a node will accept. Can be set on the command line, e.g. -Dnode.maxDatagramSize=2048
+	static final int PACKETSIZE = Integer.getInteger("node.maxDatagramSize", 65536);
+
+	public static Transport open(int port) throws IOException
+	{
+		return open(port, System.getProperty("node.transport", "socket"));
+	}
+
+	public static Transport open(int port, String transportType) throws IOException
+	{
+		if(transportType.equalsIgnoreCase("channel"))
+			return new ChannelTransport(port);
+		return new SocketTransport(port);
+	}
+
+	// Start delivering received packets to the node. Called once the node is ready for them.
+	public abstract void start(Node receiver);
+
+	// The packet must already have its destination address set
+	public abstract void send(DatagramPacket packet) throws IOException;
+
+	public abstract void close();
+}
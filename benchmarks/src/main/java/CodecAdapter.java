@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * CodecAdapter class
+ *
+ * The packet encoding and decoding that benchmarks.CodecBenchmark measures (see NodeClasses there
+ * for why this is a separate class). The datagrams to parse are encoded once up front.
+ */
+public class CodecAdapter implements benchmarks.CodecBenchmark.Operations {
+	private SNDContent packet;
+	private ByteBuffer receivedPacket;
+	private ByteBuffer sendBuffer;
+	private ACKContent ack;
+	private ByteBuffer receivedACK;
+
+	public void prepareSND(int contentLength)
+	{
+		StringBuilder content = new StringBuilder();
+		for(int i = 0; i < contentLength; i++) content.append((char) ('a' + i % 26));
+		packet = new SNDContent(ContentType.PACIN, "H1", "H2", content.toString());
+		packet.resetPacketNumber(7);
+		receivedPacket = ByteBuffer.wrap(packet.toDatagramPacket().getData());
+		sendBuffer = ByteBuffer.allocate(PacketCodec.SND_HEADER_LENGTH + PacketCodec.MAX_CONTENT_LENGTH);
+	}
+
+	// The blocks are the ones a receiver missing every other packet after 8 would send
+	public void prepareACK(int sackBlocks)
+	{
+		int[] blocks = new int[sackBlocks * 2];
+		for(int i = 0; i < blocks.length; i++) blocks[i] = (9 + i) & NodeData.SEQUENCE_MASK;
+		ack = new ACKContent(8, blocks, sackBlocks);
+		receivedACK = ByteBuffer.wrap(ack.toDatagramPacket().getData());
+	}
+
+	public Object parseSND()
+	{
+		return new SNDContent(receivedPacket);
+	}
+
+	public Object parseSNDContent()
+	{
+		return new SNDContent(receivedPacket).getPacketContent();
+	}
+
+	public Object serialiseSND()
+	{
+		return packet.toDatagramPacket();
+	}
+
+	public int writeSND()
+	{
+		sendBuffer.clear();
+		packet.writeTo(sendBuffer);
+		return sendBuffer.position();
+	}
+
+	public Object parseACK()
+	{
+		return new ACKContent(receivedACK);
+	}
+
+	public Object serialiseACK()
+	{
+		return ack.toDatagramPacket();
+	}
+}
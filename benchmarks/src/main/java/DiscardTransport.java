@@ -0,0 +1,16 @@
+import java.net.DatagramPacket;
+
+/**
+ *
+ * DiscardTransport class
+ *
+ * A Transport that throws away everything sent through it, and never receives anything, so a
+ * benchmark measures only the node's own work.
+ */
+public class DiscardTransport extends Transport {
+	public void start(Node receiver) {}
+
+	public void send(DatagramPacket packet) {}
+
+	public void close() {}
+}
@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+
+/**
+ *
+ * FlowComputationAdapter class
+ *
+ * The Controller's side of benchmarks.FlowComputationBenchmark. The network comes from
+ * TopologyGenerator, and is given to a ControllerFlowTable as the FeatureReplies its routers
+ * would send. The flow table is always worked out for the first router.
+ */
+public class FlowComputationAdapter implements benchmarks.FlowComputationBenchmark.Operations {
+	// Keeps "NEW FLOW TO" for every flow table out of the results
+	private static final EventLog SILENT_LOG = new EventLog(EventLog.Level.OFF, 2);
+
+	private final ArrayList<String[]> featureReplies = new ArrayList<String[]>();
+	private String requestingRouter;
+	private String[] changingRouter;		// the FeatureReply changeLink() sends, with its first link's distance
+	private int changedDistance;
+	private ControllerFlowTable controllerFlowTable;
+
+	public void prepare(String kind, int routers, long seed)
+	{
+		Topology topology = TopologyGenerator.generate(kind, routers, routers, seed);
+		for(int router = 0; router < topology.getRouterCount(); router++)
+		{
+			// [routerName][hostName][router1Name][router1Distance]..., as Controller makes from a FeatureReply
+			ArrayList<String> reply = new ArrayList<String>();
+			reply.add(topology.routerNames.get(router));
+			String hostName = topology.hostNames.get(router);
+			reply.add((hostName == null) ? SNDContent.NO_NODE : hostName);
+			for(Topology.Link link : topology.links)
+			{
+				if(link.from != router && link.to != router) continue;
+				reply.add(topology.routerNames.get((link.from == router) ? link.to : link.from));
+				reply.add("" + link.distance);
+			}
+			featureReplies.add(reply.toArray(new String[0]));
+		}
+		requestingRouter = topology.routerNames.get(0);
+
+		// The router added last: in a grid it is the furthest from the first one, and in a scale
+		// free network one of the least connected
+		changingRouter = featureReplies.get(featureReplies.size() - 1).clone();
+		changedDistance = (changingRouter.length > 2) ? Integer.parseInt(changingRouter[3]) : 0;
+	}
+
+	public void newFlowTable()
+	{
+		controllerFlowTable = new ControllerFlowTable(SILENT_LOG);
+		for(String[] featureReply : featureReplies)
+			controllerFlowTable.addANewRouter(featureReply);
+		controllerFlowTable.getGraph();
+	}
+
+	public String flowChart()
+	{
+		return controllerFlowTable.updateFlowChartForRouter(requestingRouter);
+	}
+
+	// The link goes back and forth between two distances, so it is a change every time
+	public void changeLink()
+	{
+		if(changingRouter.length > 2)
+		{
+			changedDistance = (changedDistance == 1) ? 2 : 1;
+			changingRouter[3] = "" + changedDistance;
+		}
+		controllerFlowTable.addANewRouter(changingRouter);
+	}
+}
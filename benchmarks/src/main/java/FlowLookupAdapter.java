@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ *
+ * FlowLookupAdapter class
+ *
+ * A Router's flow table for benchmarks.FlowLookupBenchmark. The router has a host and four
+ * neighbouring routers, and the Controller has sent it a route to every host, spread evenly over
+ * the neighbours. The hosts are named as TopologyGenerator names them.
+ */
+public class FlowLookupAdapter implements benchmarks.FlowLookupBenchmark.Operations {
+	static final int NEIGHBOURS = 4;
+
+	private RouterFlowTable routerFlowTable;
+	private int[] knownHostIds;
+	private int[] unknownHostIds;
+
+	public void prepare(int hosts, int lookups, long seed)
+	{
+		Topology topology = TopologyGenerator.generate("ring", Math.max(hosts, NEIGHBOURS + 1), hosts, seed);
+		String[] hostNames = topology.getHostNames();
+		String routerName = topology.routerNames.get(0);
+
+		Transport transport = new DiscardTransport();
+		NodeData connectedHost = new NodeData(transport, 0, "HOST", hostNames[0], 0);
+		ArrayList<NodeData> connectedRouters = new ArrayList<NodeData>();
+		for(int i = 1; i <= NEIGHBOURS; i++)
+			connectedRouters.add(new NodeData(transport, 0, "ROUTER", topology.routerNames.get(i), 1));
+
+		StringBuilder flowModification = new StringBuilder(FlowModification.versionToString(1));
+		for(int i = 0; i < hostNames.length; i++)
+		{
+			String accessRouter = (i == 0) ? routerName : connectedRouters.get(i % NEIGHBOURS).getNodeName();
+			flowModification.append(hostNames[i]).append(accessRouter);
+		}
+		routerFlowTable = new RouterFlowTable(routerName, connectedHost, connectedRouters);
+		routerFlowTable.updateFlowChart(flowModification.toString());
+
+		// Unknown hosts are any two printable characters that aren't the name of a known one
+		Random random = new Random(seed);
+		RouterFlowTable.Snapshot flowTable = routerFlowTable.getSnapshot();
+		knownHostIds = new int[lookups];
+		unknownHostIds = new int[lookups];
+		for(int i = 0; i < lookups; i++)
+		{
+			knownHostIds[i] = PacketCodec.nameToId(hostNames[random.nextInt(hostNames.length)]);
+			do {
+				unknownHostIds[i] = PacketCodec.nameToId("" + (char) ('!' + random.nextInt(94)) + (char) ('!' + random.nextInt(94)));
+			} while(flowTable.isDestinationHostKnown(unknownHostIds[i]));
+		}
+	}
+
+	// The snapshot is read again for every packet, as Router.forwardOrPark() does
+	public int nextHops()
+	{
+		int found = 0;
+		for(int hostId : knownHostIds)
+		{
+			if(routerFlowTable.getSnapshot().getNextHop(hostId) != null) found++;
+		}
+		return found;
+	}
+
+	public int knownHosts()
+	{
+		return countKnown(knownHostIds);
+	}
+
+	public int unknownHosts()
+	{
+		return countKnown(unknownHostIds);
+	}
+
+	private int countKnown(int[] hostIds)
+	{
+		int known = 0;
+		for(int hostId : hostIds)
+		{
+			if(routerFlowTable.getSnapshot().isDestinationHostKnown(hostId)) known++;
+		}
+		return known;
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ * SendWindowAdapter class
+ *
+ * One link's send window for benchmarks.SendWindowBenchmark, sending to a DiscardTransport. Every
+ * packet sent is the same SNDContent, which is fine since it is encoded as soon as it is sent.
+ */
+public class SendWindowAdapter implements benchmarks.SendWindowBenchmark.Operations {
+	private NodeData link;
+	private SNDContent packet;
+
+	public void prepare(int inFlight)
+	{
+		link = new NodeData(new DiscardTransport(), 0, "ROUTER", "R2", 1);
+		packet = new SNDContent(ContentType.PACIN, "H1", "H2", "benchmark");
+		for(int i = 0; i < inFlight; i++) link.sendPacket(packet);
+	}
+
+	// Sends one packet, and then ACKs the oldest one in flight, leaving as many in flight (or
+	// waiting on the egress queue) as there were before
+	public int sendAndAcknowledge()
+	{
+		link.sendPacket(packet);
+		link.acceptACKs(new ACKContent((link.sendBase + 1) & NodeData.SEQUENCE_MASK));
+		return link.sendWindowSize;
+	}
+}
@@ -0,0 +1,170 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * BenchmarkRunner class
+ *
+ * Runs the benchmarks (all of them, or those matching REGEX) with JMH's GC profiler, so every
+ * result has the bytes allocated per operation as well as the time per operation, and checks
+ * them against a baseline saved by an earlier run.
+ *
+ *	java [-D...] -jar benchmarks/target/benchmarks.jar [REGEX]
+ *
+ *   benchmark.saveBaseline	file to save this run's results in, to compare later runs with
+ *   benchmark.baseline		file saved by an earlier run. If any benchmark in both takes more
+ *							than benchmark.tolerance percent (default 10) longer, or allocates
+ *							more than that much more, it is listed and the exit status is 1.
+ *   benchmark.result		where JMH's own results go, as JSON (default jmh-result.json)
+ *
+ * The baseline should come from the same machine, as nothing else is comparable. For JMH's own
+ * options, run org.openjdk.jmh.Main from the same jar instead. Any -D options (such as
+ * -Darq.mode=SR) are passed on to the JVMs JMH forks to run each benchmark in.
+ */
+public class BenchmarkRunner {
+	static final String ALLOCATION = "gc.alloc.rate.norm";
+
+	// Allocation is measured by sampling, so a benchmark that allocates nothing can still show a
+	// byte or two. Anything under the smallest possible object is not counted as a regression.
+	static final double ALLOCATION_SLACK_BYTES = 16;
+
+	/**
+	 *
+	 * Measurement class
+	 *
+	 * One benchmark's result: nanoseconds and bytes allocated per operation.
+	 */
+	static final class Measurement {
+		final double nanos;
+		final double bytes;
+
+		Measurement(double nanos, double bytes)
+		{
+			this.nanos = nanos;
+			this.bytes = bytes;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String include = (args.length > 0 && !args[0].isEmpty()) ? args[0] : "benchmarks\\..*";
+		String resultFile = property("benchmark.result", "jmh-result.json");
+		String baselineFile = property("benchmark.baseline", null);
+		String saveBaselineFile = property("benchmark.saveBaseline", null);
+		double tolerance = Double.parseDouble(property("benchmark.tolerance", "10")) / 100;
+
+		Options options = new OptionsBuilder()
+				.include(include)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile)
+				.build();
+		Collection<RunResult> results = new Runner(options).run();
+
+		LinkedHashMap<String, Measurement> measurements = new LinkedHashMap<String, Measurement>();
+		for(RunResult result : results)
+			measurements.put(label(result), measure(result));
+
+		if(saveBaselineFile != null)
+		{
+			saveBaseline(saveBaselineFile, measurements);
+			System.out.println("Baseline saved to " + saveBaselineFile);
+		}
+		if(baselineFile != null)
+		{
+			ArrayList<String> regressions = compare(loadBaseline(baselineFile), measurements, tolerance);
+			if(!regressions.isEmpty())
+			{
+				System.out.println("Regressions against " + baselineFile + ":");
+				for(String regression : regressions) System.out.println("  " + regression);
+				System.exit(1);
+			}
+			System.out.println("No regressions against " + baselineFile);
+		}
+	}
+
+	// Maven passes properties that weren't set as empty strings
+	private static String property(String name, String defaultValue)
+	{
+		String value = System.getProperty(name);
+		return (value == null || value.isEmpty()) ? defaultValue : value;
+	}
+
+	// The benchmark's name and parameters, e.g. benchmarks.CodecBenchmark.parseSND:contentLength=64
+	private static String label(RunResult result)
+	{
+		StringBuilder label = new StringBuilder(result.getParams().getBenchmark());
+		for(String parameter : result.getParams().getParamsKeys())
+			label.append(':').append(parameter).append('=').append(result.getParams().getParam(parameter));
+		return label.toString();
+	}
+
+	private static Measurement measure(RunResult result)
+	{
+		double bytes = Double.NaN;
+		for(Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet())
+		{
+			// Older versions of JMH put a middle dot in front of the name
+			if(secondary.getKey().endsWith(ALLOCATION)) bytes = secondary.getValue().getScore();
+		}
+		return new Measurement(result.getPrimaryResult().getScore(), bytes);
+	}
+
+	private static ArrayList<String> compare(Map<String, Measurement> baseline, Map<String, Measurement> measurements, double tolerance)
+	{
+		ArrayList<String> regressions = new ArrayList<String>();
+		for(Map.Entry<String, Measurement> entry : measurements.entrySet())
+		{
+			Measurement before = baseline.get(entry.getKey());
+			Measurement after = entry.getValue();
+			if(before == null) continue;
+			if(after.nanos > before.nanos * (1 + tolerance))
+				regressions.add(entry.getKey() + String.format(": %.1f ns/op, was %.1f", after.nanos, before.nanos));
+			if(after.bytes > before.bytes * (1 + tolerance) + ALLOCATION_SLACK_BYTES)
+				regressions.add(entry.getKey() + String.format(": %.0f B/op, was %.0f", after.bytes, before.bytes));
+		}
+		return regressions;
+	}
+
+	// One benchmark per line: label, nanoseconds per operation, bytes per operation
+	private static void saveBaseline(String fileName, Map<String, Measurement> measurements) throws IOException
+	{
+		PrintWriter writer = new PrintWriter(fileName, "UTF-8");
+		try {
+			writer.println("# benchmark\tns/op\tB/op");
+			for(Map.Entry<String, Measurement> entry : measurements.entrySet())
+				writer.println(entry.getKey() + "\t" + entry.getValue().nanos + "\t" + entry.getValue().bytes);
+		} finally { writer.close(); }
+	}
+
+	private static LinkedHashMap<String, Measurement> loadBaseline(String fileName) throws IOException
+	{
+		LinkedHashMap<String, Measurement> baseline = new LinkedHashMap<String, Measurement>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				if(line.startsWith("#") || line.trim().isEmpty()) continue;
+				String[] fields = line.split("\t");
+				baseline.put(fields[0], new Measurement(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+			}
+		} finally { reader.close(); }
+		return baseline;
+	}
+}
@@ -0,0 +1,112 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * CodecBenchmark class
+ *
+ * Reading packets out of a received datagram, and writing them into one to send, for every
+ * packet that goes over a link (see SNDContent, ACKContent and PacketCodec). SND packets are
+ * measured with contentLength bytes of content, and ACKs with sackBlocks SACK blocks (as sent
+ * in Selective Repeat mode when the receiver has packets buffered).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	public interface Operations {
+		void prepareSND(int contentLength);
+		void prepareACK(int sackBlocks);
+		Object parseSND();
+		Object parseSNDContent();
+		Object serialiseSND();
+		int writeSND();
+		Object parseACK();
+		Object serialiseACK();
+	}
+
+	@State(Scope.Thread)
+	public static class SNDPackets {
+		@Param({ "0", "64", "1024" })
+		int contentLength;
+
+		Operations codec;
+
+		@Setup
+		public void setUp()
+		{
+			codec = NodeClasses.create("CodecAdapter", Operations.class);
+			codec.prepareSND(contentLength);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ACKPackets {
+		@Param({ "0", "4" })
+		int sackBlocks;
+
+		Operations codec;
+
+		@Setup
+		public void setUp()
+		{
+			codec = NodeClasses.create("CodecAdapter", Operations.class);
+			codec.prepareACK(sackBlocks);
+		}
+	}
+
+	// What a router does with each packet it forwards: only the header is looked at
+	@Benchmark
+	public Object parseSND(SNDPackets packets)
+	{
+		return packets.codec.parseSND();
+	}
+
+	// What a host or the Controller does: the content is turned into a String as well
+	@Benchmark
+	public Object parseSNDContent(SNDPackets packets)
+	{
+		return packets.codec.parseSNDContent();
+	}
+
+	@Benchmark
+	public Object serialiseSND(SNDPackets packets)
+	{
+		return packets.codec.serialiseSND();
+	}
+
+	// Into a buffer that is reused, instead of a new array for every packet as toDatagramPacket() makes
+	@Benchmark
+	public int writeSND(SNDPackets packets)
+	{
+		return packets.codec.writeSND();
+	}
+
+	@Benchmark
+	public Object parseACK(ACKPackets packets)
+	{
+		return packets.codec.parseACK();
+	}
+
+	@Benchmark
+	public Object serialiseACK(ACKPackets packets)
+	{
+		return packets.codec.serialiseACK();
+	}
+}
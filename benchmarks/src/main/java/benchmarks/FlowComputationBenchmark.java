@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * FlowComputationBenchmark class
+ *
+ * The Controller working out a router's flow table (ControllerFlowTable.updateFlowChartForRouter())
+ * on networks made by TopologyGenerator, of each kind and number of routers. Every router has a
+ * host, and has sent its FeatureReply.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowComputationBenchmark {
+
+	public interface Operations {
+		void prepare(String kind, int routers, long seed);
+		void newFlowTable();
+		String flowChart();
+		void changeLink();
+	}
+
+	@State(Scope.Thread)
+	public abstract static class Network {
+		@Param({ "grid", "scalefree" })
+		String kind;
+
+		@Param({ "16", "128", "1024" })
+		int routers;
+
+		Operations controller;
+
+		void prepare()
+		{
+			controller = NodeClasses.create("FlowComputationAdapter", Operations.class);
+			controller.prepare(kind, routers, 1);
+		}
+	}
+
+	// Nothing is left over from the last invocation, so the whole shortest path tree is worked
+	// out every time, as it is for a router's first request. Building the ControllerFlowTable
+	// and its graph isn't measured.
+	@State(Scope.Thread)
+	public static class NewFlowTable extends Network {
+		@Setup(Level.Trial)
+		public void setUp()
+		{
+			prepare();
+		}
+
+		@Setup(Level.Invocation)
+		public void newFlowTable()
+		{
+			controller.newFlowTable();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ExistingFlowTable extends Network {
+		@Setup(Level.Trial)
+		public void setUp()
+		{
+			prepare();
+			controller.newFlowTable();
+			controller.flowChart();
+		}
+	}
+
+	@Benchmark
+	public String firstFlowChart(NewFlowTable network)
+	{
+		return network.controller.flowChart();
+	}
+
+	// A router far from the one asking sends a new FeatureReply with one of its links a
+	// different distance, and the router asks again: the graph is built again, and the tree
+	// repaired rather than worked out from scratch
+	@Benchmark
+	public String flowChartAfterLinkChange(ExistingFlowTable network)
+	{
+		network.controller.changeLink();
+		return network.controller.flowChart();
+	}
+
+	// Asking again when nothing has changed
+	@Benchmark
+	public String unchangedFlowChart(ExistingFlowTable network)
+	{
+		return network.controller.flowChart();
+	}
+}
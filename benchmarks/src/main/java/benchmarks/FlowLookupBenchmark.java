@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * FlowLookupBenchmark class
+ *
+ * A Router looking up where to send a packet in its flow table, which it does for every packet
+ * it forwards, in a table with an entry for each of hosts hosts. Each invocation looks up LOOKUPS hosts picked at
+ * random (the same ones every time), and the time is given per lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlowLookupBenchmark {
+	public static final int LOOKUPS = 1024;
+
+	public interface Operations {
+		void prepare(int hosts, int lookups, long seed);
+		int nextHops();
+		int knownHosts();
+		int unknownHosts();
+	}
+
+	@Param({ "8", "128", "2048" })
+	int hosts;
+
+	Operations router;
+
+	@Setup
+	public void setUp()
+	{
+		router = NodeClasses.create("FlowLookupAdapter", Operations.class);
+		router.prepare(hosts, LOOKUPS, 1);
+	}
+
+	// Hosts that are in the table, looked up the way Router.forwardPacket() does
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int nextHop()
+	{
+		return router.nextHops();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int isDestinationHostKnown()
+	{
+		return router.knownHosts();
+	}
+
+	// Hosts that aren't, which is every packet before the Controller has sent a route for it
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int isDestinationHostUnknown()
+	{
+		return router.unknownHosts();
+	}
+}
@@ -0,0 +1,25 @@
+package benchmarks;
+
+/**
+ *
+ * NodeClasses class
+ *
+ * JMH won't run benchmarks in the default package, which is where every node class is, and
+ * code in a named package can't refer to the default package at all. So each benchmark
+ * declares the operations it measures as an interface, and an adapter class in the default
+ * package implements it using the node classes. The adapter is created by name, once, before
+ * any measuring starts; after that the benchmark calls it through the interface, which the JIT
+ * inlines like any other call with only one implementation.
+ */
+final class NodeClasses {
+	private NodeClasses() {}
+
+	static <T> T create(String adapterClassName, Class<T> operations)
+	{
+		try {
+			return operations.cast(Class.forName(adapterClassName).getDeclaredConstructor().newInstance());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Can't create " + adapterClassName + " (is it on the classpath?)", e);
+		}
+	}
+}
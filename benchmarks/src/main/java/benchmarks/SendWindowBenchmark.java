@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * SendWindowBenchmark class
+ *
+ * One packet going through a link's send window (NodeData.sendPacket()), and the ACK for the
+ * oldest packet in flight coming back (NodeData.acceptACKs()), with inFlight packets already
+ * sent and not yet ACKed. The packets go nowhere, so this is only the window handling: timers
+ * on the RetransmissionScheduler, sliding the window, and the round trip estimate. With the
+ * default -Darq.sequenceBits=4 the window holds 15 packets, so with more in flight than that the
+ * rest wait on the egress queue, and each ACK sends the next one from it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SendWindowBenchmark {
+
+	public interface Operations {
+		void prepare(int inFlight);
+		int sendAndAcknowledge();
+	}
+
+	@Param({ "0", "8", "64" })
+	int inFlight;
+
+	Operations link;
+
+	@Setup
+	public void setUp()
+	{
+		link = NodeClasses.create("SendWindowAdapter", Operations.class);
+		link.prepare(inFlight);
+	}
+
+	@Benchmark
+	public int sendAndAcknowledge()
+	{
+		return link.sendAndAcknowledge();
+	}
+}
@@ -0,0 +1,177 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * FlowModificationTest class
+ *
+ * Takes a RouterFlowTable through a few thousand random flow tables in a row, each one sent as
+ * a FLWDL from FlowModification.encodeDelta(), and checks it comes out the same as it would have
+ * if each table had been sent whole. A FLWDL worked out from any other version of the table has
+ * to be turned away, with the table left exactly as it was.
+ */
+class FlowModificationTest {
+	static final int TABLES = 5000;
+	static final int HOSTS = 40;
+	static final int ROUTERS = 8;		// R1 is the router itself, R2 to R6 its neighbours, R7 and R8 further away
+	static final int NEIGHBOURS = 5;
+	static final long FIRST_VERSION = 0xFFFFFFF0L;	// so the version wraps round part way through
+
+	private static final Transport NO_TRANSPORT = new Transport() {
+		public void start(Node receiver) {}
+		public void send(DatagramPacket packet) {}
+		public void close() {}
+	};
+
+	private final NodeData connectedHost = new NodeData(NO_TRANSPORT, 1, "HOST", "H1", 0);
+	private final ArrayList<NodeData> connectedRouters = new ArrayList<NodeData>();
+
+	FlowModificationTest()
+	{
+		for(int router = 2; router < 2 + NEIGHBOURS; router++)
+			connectedRouters.add(new NodeData(NO_TRANSPORT, router, "ROUTER", routerName(router), 1));
+	}
+
+	private static String hostName(int host)
+	{
+		return "H" + TopologyGenerator.NAME_CHARACTERS.charAt(host);
+	}
+
+	private static String routerName(int router)
+	{
+		return "R" + TopologyGenerator.NAME_CHARACTERS.charAt(router - 1);
+	}
+
+	private RouterFlowTable newRouterFlowTable()
+	{
+		return new RouterFlowTable("R1", connectedHost, connectedRouters);
+	}
+
+	private static String randomRouter(Random random)
+	{
+		return routerName(1 + random.nextInt(ROUTERS));
+	}
+
+	private static LinkedHashMap<String, String> randomTable(Random random)
+	{
+		LinkedHashMap<String, String> table = new LinkedHashMap<String, String>();
+		double hostChance = random.nextDouble();
+		for(int host = 0; host < HOSTS; host++)
+		{
+			if(random.nextDouble() < hostChance) table.put(hostName(host), randomRouter(random));
+		}
+		return table;
+	}
+
+	// Adds, moves and takes away hosts at random. Sometimes hardly anything changes, sometimes
+	// nearly everything does.
+	private static LinkedHashMap<String, String> changeTable(Random random, LinkedHashMap<String, String> table)
+	{
+		LinkedHashMap<String, String> newTable = new LinkedHashMap<String, String>(table);
+		double changeChance = random.nextDouble();
+		for(int host = 0; host < HOSTS; host++)
+		{
+			if(random.nextDouble() >= changeChance) continue;
+			String hostName = hostName(host);
+			if(!table.containsKey(hostName) || random.nextBoolean())
+				newTable.put(hostName, randomRouter(random));
+			else
+				newTable.remove(hostName);
+		}
+		return newTable;
+	}
+
+	// Every host, whether it is in either table or not, has to be known, and go out to the same
+	// NodeData, in both
+	private static void assertSameTable(RouterFlowTable expected, RouterFlowTable actual, String description)
+	{
+		assertEquals(expected.getVersion(), actual.getVersion(), description + ": version");
+		RouterFlowTable.Snapshot expectedSnapshot = expected.getSnapshot();
+		RouterFlowTable.Snapshot actualSnapshot = actual.getSnapshot();
+		for(int host = 0; host < HOSTS; host++)
+		{
+			int hostId = PacketCodec.nameToId(hostName(host));
+			assertEquals(expectedSnapshot.isDestinationHostKnown(hostId), actualSnapshot.isDestinationHostKnown(hostId),
+					description + ": whether " + hostName(host) + " is known");
+			assertSame(expectedSnapshot.getNextHop(hostId), actualSnapshot.getNextHop(hostId),
+					description + ": next hop for " + hostName(host));
+		}
+	}
+
+	@Test
+	void deltaTakesTheRouterFromOneTableToTheNext()
+	{
+		Random random = new Random(1);
+		RouterFlowTable router = newRouterFlowTable();
+		long version = FIRST_VERSION;
+		LinkedHashMap<String, String> table = randomTable(random);
+		router.updateFlowChart(FlowModification.encodeFullTable(version, FlowModification.encodeEntries(table)));
+
+		int added = 0, modified = 0, deleted = 0;
+		for(int step = 0; step < TABLES; step++)
+		{
+			LinkedHashMap<String, String> newTable = changeTable(random, table);
+			long newVersion = FlowModification.nextVersion(version);
+			String delta = FlowModification.encodeDelta(version, newVersion, table, newTable);
+			assertTrue(router.applyFlowDelta(delta), "step " + step + ": delta from the router's own version turned away");
+
+			RouterFlowTable sentWhole = newRouterFlowTable();
+			sentWhole.updateFlowChart(FlowModification.encodeFullTable(newVersion, FlowModification.encodeEntries(newTable)));
+			assertSameTable(sentWhole, router, "step " + step + " (" + delta + ")");
+
+			for(String hostName : newTable.keySet())
+			{
+				if(!table.containsKey(hostName)) added++;
+				else if(!table.get(hostName).equals(newTable.get(hostName))) modified++;
+			}
+			for(String hostName : table.keySet())
+			{
+				if(!newTable.containsKey(hostName)) deleted++;
+			}
+			table = newTable;
+			version = newVersion;
+		}
+		assertTrue(added > 0 && modified > 0 && deleted > 0,
+				"only " + added + " added, " + modified + " modified and " + deleted + " deleted");
+	}
+
+	@Test
+	void deltaFromAnotherVersionIsTurnedAway()
+	{
+		Random random = new Random(2);
+		for(int step = 0; step < TABLES; step++)
+		{
+			RouterFlowTable router = newRouterFlowTable();
+			long version = random.nextInt() & 0xFFFFFFFFL;
+			LinkedHashMap<String, String> table = randomTable(random);
+			router.updateFlowChart(FlowModification.encodeFullTable(version, FlowModification.encodeEntries(table)));
+			RouterFlowTable.Snapshot before = router.getSnapshot();
+
+			// Usually the version just before or after the router's, as when a FLWDL is lost or
+			// two arrive the wrong way round, and otherwise any other version at all
+			long baseVersion;
+			switch(random.nextInt(3))
+			{
+				case 0:  baseVersion = (version - 1) & 0xFFFFFFFFL; break;
+				case 1:  baseVersion = FlowModification.nextVersion(version); break;
+				default: baseVersion = random.nextInt() & 0xFFFFFFFFL; break;
+			}
+			if(baseVersion == version) continue;
+			String delta = FlowModification.encodeDelta(baseVersion, FlowModification.nextVersion(baseVersion),
+					table, changeTable(random, table));
+
+			assertFalse(router.applyFlowDelta(delta), "step " + step + ": delta from version "
+					+ FlowModification.versionToString(baseVersion) + " applied to version " + FlowModification.versionToString(version));
+			assertSame(before, router.getSnapshot(), "step " + step + ": table changed by a delta that was turned away");
+		}
+	}
+}
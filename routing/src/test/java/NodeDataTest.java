@@ -0,0 +1,212 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * NodeDataTest class
+ *
+ * Sends packets from one NodeData to another over a LossyNetwork, which drops datagrams (data
+ * packets and ACKs alike) at random, and checks every packet comes out at the other end once,
+ * in order, and in good time. The ARQ mode and sequence space are fixed for the whole JVM, so
+ * the build runs this class once for each of them (see routing/pom.xml).
+ */
+class NodeDataTest {
+	static final int SENDER_PORT = 1;
+	static final int RECEIVER_PORT = 2;
+
+	private LossyNetwork network;
+
+	/**
+	 *
+	 * LossyNetwork class
+	 *
+	 * Stands in for UDP between the two links. Every datagram is copied when it is sent, and is
+	 * then either dropped or handed to the link at the other end on this network's own thread,
+	 * the way a node's listener thread would.
+	 */
+	static class LossyNetwork extends Thread {
+		final SplittableRandom random = new SplittableRandom(1);	// java.util.Random's draws a fixed number apart are correlated
+		final LinkedBlockingQueue<DatagramPacket> inFlight = new LinkedBlockingQueue<DatagramPacket>();
+		final Endpoint sender = new Endpoint(this, RECEIVER_PORT);
+		final Endpoint receiver = new Endpoint(this, SENDER_PORT);
+		volatile double lossRate;
+		volatile String dropOnce;		// the content of one data packet to drop the first time it is sent
+
+		LossyNetwork()
+		{
+			super("LossyNetwork");
+			setDaemon(true);
+			start();
+		}
+
+		public void run()
+		{
+			try {
+				while(true)
+				{
+					DatagramPacket packet = inFlight.take();
+					deliver((packet.getPort() == RECEIVER_PORT) ? receiver : sender, ByteBuffer.wrap(packet.getData()));
+				}
+			} catch (InterruptedException e) { return; }
+		}
+
+		private void deliver(Endpoint endpoint, ByteBuffer packet)
+		{
+			if(random.nextDouble() < lossRate) return;
+			ACKContent ack = new ACKContent(packet);
+			if(ack.isValidACK())
+			{
+				endpoint.link.acceptACKs(ack);
+				return;
+			}
+			SNDContent data = new SNDContent(packet);
+			if(!data.isValid()) return;
+			if(data.getPacketContent().equals(dropOnce))
+			{
+				dropOnce = null;
+				return;
+			}
+			for(SNDContent inOrderPacket : endpoint.link.receivePacket(data))
+				endpoint.deliver(inOrderPacket.getPacketContent());
+			endpoint.link.sendACK();
+		}
+	}
+
+	/**
+	 *
+	 * Endpoint class
+	 *
+	 * One end of the LossyNetwork: the Transport a link sends through, the link itself, and
+	 * what has been delivered to it so far.
+	 */
+	static class Endpoint extends Transport {
+		final LossyNetwork network;
+		final NodeData link;
+		private final ArrayList<String> delivered = new ArrayList<String>();
+
+		Endpoint(LossyNetwork network, int otherPort)
+		{
+			this.network = network;
+			link = new NodeData(this, otherPort, "ROUTER", "R" + otherPort, 1);
+		}
+
+		public void start(Node receiver) {}
+
+		public void send(DatagramPacket packet)
+		{
+			byte[] data = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+			network.inFlight.add(new DatagramPacket(data, data.length, (InetSocketAddress) packet.getSocketAddress()));
+		}
+
+		public void close() {}
+
+		synchronized void deliver(String content)
+		{
+			delivered.add(content);
+		}
+
+		synchronized ArrayList<String> getDelivered()
+		{
+			return new ArrayList<String>(delivered);
+		}
+	}
+
+	@AfterEach
+	void stopNetwork()
+	{
+		network.interrupt();
+	}
+
+	// Sends count packets, numbered on from first, and waits up to timeoutMillis for all of them
+	// to be delivered. Returns how long that took.
+	private long sendAndWait(int first, int count, long timeoutMillis) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		for(int i = first; i < first + count; i++)
+			assertTrue(network.sender.link.sendPacket(new SNDContent(ContentType.PACIN, "H1", "H2", "P" + i)));
+
+		long deadline = start + timeoutMillis * 1000000L;
+		while(network.receiver.getDelivered().size() < first + count && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+
+		ArrayList<String> delivered = network.receiver.getDelivered();
+		assertEquals(first + count, delivered.size(), describe() + ": delivered " + delivered.size()
+				+ " of " + (first + count) + " within " + timeoutMillis + " ms");
+		for(int i = 0; i < delivered.size(); i++)
+			assertEquals("P" + i, delivered.get(i), describe() + ": packet " + i + " out of order");
+		return elapsedMillis;
+	}
+
+	private static String describe()
+	{
+		return (NodeData.SELECTIVE_REPEAT ? "SR" : "GBN") + ", " + NodeData.SEQUENCE_BITS + " bit packet numbers, window " + NodeData.WINDOW_SIZE;
+	}
+
+	@Test
+	void deliversEverythingInOrderWithoutLoss() throws InterruptedException
+	{
+		network = new LossyNetwork();
+		sendAndWait(0, 3000, 10000);
+	}
+
+	// Once the link has a round trip time, a single lost packet should only cost about one
+	// retransmission timeout, not one for every packet behind it
+	@Test
+	void recoversQuicklyFromOneLostPacket() throws InterruptedException
+	{
+		network = new LossyNetwork();
+		sendAndWait(0, 20, 5000);
+		network.dropOnce = "P25";
+		long elapsedMillis = sendAndWait(20, 20, 5000);
+		assertTrue(elapsedMillis < 500, describe() + ": took " + elapsedMillis + " ms to recover from one lost packet");
+	}
+
+	// A packet that can't fit in a datagram is turned away, rather than being sent and resent
+	// for ever, and the packets after it still get through
+	@Test
+	void rejectsAPacketTooBigForADatagram() throws InterruptedException
+	{
+		network = new LossyNetwork();
+		char[] content = new char[Transport.PACKETSIZE];
+		Arrays.fill(content, 'x');
+		assertFalse(network.sender.link.sendPacket(new SNDContent(ContentType.PACIN, "H1", "H2", new String(content))));
+		assertEquals(1, network.sender.link.statistics.getOversizedPacketDrops());
+		sendAndWait(0, 20, 5000);
+	}
+
+	// The link carries some packets before it starts losing them, so the timeout has come down
+	// from the first few round trips, which are slow while the JVM is warming up. Go-Back-N gets
+	// hardly any round trip samples once every window has a packet lost in it.
+	@Test
+	void deliversEverythingInOrderOverALossyLink() throws InterruptedException
+	{
+		network = new LossyNetwork();
+		sendAndWait(0, 200, 5000);
+		network.lossRate = 0.02;
+		sendAndWait(200, 2000, 15000);
+	}
+
+	// A lot of timeouts in a row mustn't leave the timeout backed off for long after the
+	// packets start getting through again
+	@Test
+	void deliversEverythingInOrderOverAVeryLossyLink() throws InterruptedException
+	{
+		network = new LossyNetwork();
+		sendAndWait(0, 200, 5000);
+		network.lossRate = 0.2;
+		sendAndWait(200, 300, 30000);
+	}
+}
@@ -0,0 +1,132 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * PendingPacketQueuesTest class
+ *
+ * Checks the limits on the packets a router holds for hosts its flow table doesn't know yet:
+ * which packet goes when a host's queue or all of them together are full, with either drop
+ * policy, and that packets held for longer than their time to live are never sent on.
+ */
+class PendingPacketQueuesTest {
+	static final long TTL_MILLIS = 50;
+
+	private static SNDContent packetFor(String hostName, String content)
+	{
+		return new SNDContent(ContentType.PACIN, "H1", hostName, content);
+	}
+
+	// A flow table that knows the given hosts, and nothing else
+	private static RouterFlowTable.Snapshot knowing(String... hostNames)
+	{
+		LinkedHashMap<String, String> table = new LinkedHashMap<String, String>();
+		for(String hostName : hostNames)
+			table.put(hostName, "R2");
+		RouterFlowTable flowTable = new RouterFlowTable("R1", null, new ArrayList<NodeData>());
+		flowTable.updateFlowChart(FlowModification.encodeFullTable(1, FlowModification.encodeEntries(table)));
+		return flowTable.getSnapshot();
+	}
+
+	private static ArrayList<String> contents(ArrayList<SNDContent> packets)
+	{
+		ArrayList<String> contents = new ArrayList<String>();
+		for(SNDContent packet : packets)
+			contents.add(packet.getPacketContent());
+		return contents;
+	}
+
+	@Test
+	void dropOldestMakesRoomForTheNewestPacketsForAHost()
+	{
+		PendingPacketQueues pending = new PendingPacketQueues(3, 100, true, 0, 1000);
+		for(int i = 1; i <= 5; i++)
+			assertTrue(pending.hold(packetFor("H2", "P" + i)));
+		assertEquals(3, pending.size());
+		assertEquals(2, pending.getDroppedPackets());
+		assertEquals(Arrays.asList("P3", "P4", "P5"), contents(pending.removeKnown(knowing("H2"))));
+		assertEquals(0, pending.size());
+	}
+
+	@Test
+	void dropNewestTurnsAwayPacketsThatDontFit()
+	{
+		PendingPacketQueues pending = new PendingPacketQueues(3, 100, false, 0, 1000);
+		for(int i = 1; i <= 5; i++)
+			assertEquals(i <= 3, pending.hold(packetFor("H2", "P" + i)), "P" + i);
+		assertEquals(3, pending.size());
+		assertEquals(2, pending.getDroppedPackets());
+		assertEquals(Arrays.asList("P1", "P2", "P3"), contents(pending.removeKnown(knowing("H2"))));
+	}
+
+	// Once every host together has used up the total, dropping the oldest can only make room in
+	// the queue the new packet is joining, so a packet for a host with nothing held is turned away
+	@Test
+	void totalLimitCountsEveryHostsPackets()
+	{
+		PendingPacketQueues pending = new PendingPacketQueues(10, 4, true, 0, 1000);
+		for(int i = 1; i <= 3; i++)
+			assertTrue(pending.hold(packetFor("H2", "P" + i)));
+		assertTrue(pending.hold(packetFor("H3", "Q1")));
+		assertFalse(pending.hold(packetFor("H4", "S1")));
+		assertTrue(pending.hold(packetFor("H2", "P4")));
+		assertEquals(4, pending.size());
+		assertEquals(2, pending.getDroppedPackets());
+		assertFalse(pending.hasPackets(PacketCodec.nameToId("H4")));
+
+		// Only the hosts the flow table knows are taken off, and the rest are left waiting
+		assertEquals(Arrays.asList("P2", "P3", "P4"), contents(pending.removeKnown(knowing("H2", "H4"))));
+		assertEquals(1, pending.size());
+		assertTrue(pending.hasPackets(PacketCodec.nameToId("H3")));
+	}
+
+	@Test
+	void packetsAreDroppedOnceTheirTimeToLiveIsUp() throws InterruptedException
+	{
+		PendingPacketQueues pending = new PendingPacketQueues(10, 100, false, TTL_MILLIS, 1000);
+		pending.hold(packetFor("H2", "P1"));
+		pending.hold(packetFor("H2", "P2"));
+		pending.hold(packetFor("H3", "Q1"));
+		Thread.sleep(TTL_MILLIS + 20);
+		pending.hold(packetFor("H2", "P3"));
+
+		// The scheduler's check takes the old packets off the front of each queue, and the
+		// queues left empty with them
+		pending.run();
+		assertEquals(1, pending.size());
+		assertEquals(3, pending.getExpiredPackets());
+		assertFalse(pending.hasPackets(PacketCodec.nameToId("H3")));
+		assertEquals(Arrays.asList("P3"), contents(pending.removeKnown(knowing("H2", "H3"))));
+	}
+
+	// The flow table can make a host known before the scheduler has got round to its packets
+	@Test
+	void expiredPacketsAreNotSentOnWhenTheirHostBecomesKnown() throws InterruptedException
+	{
+		PendingPacketQueues pending = new PendingPacketQueues(10, 100, false, TTL_MILLIS, 1000);
+		pending.hold(packetFor("H2", "P1"));
+		Thread.sleep(TTL_MILLIS + 20);
+		pending.hold(packetFor("H2", "P2"));
+		assertEquals(Arrays.asList("P2"), contents(pending.removeKnown(knowing("H2"))));
+		assertEquals(1, pending.getExpiredPackets());
+		assertEquals(0, pending.size());
+	}
+
+	@Test
+	void packetsAreHeldUntilSentWithNoTimeToLive() throws InterruptedException
+	{
+		PendingPacketQueues pending = new PendingPacketQueues(10, 100, false, 0, 1000);
+		pending.hold(packetFor("H2", "P1"));
+		Thread.sleep(20);
+		pending.run();
+		assertEquals(0, pending.getExpiredPackets());
+		assertEquals(Arrays.asList("P1"), contents(pending.removeKnown(knowing("H2"))));
+	}
+}
@@ -0,0 +1,319 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * ShortestPathTreeTest class
+ *
+ * Checks the trees ShortestPathTree works out over a TopologyGraph on a few thousand random
+ * networks, against Dijkstra's algorithm done the plain way over the DirectConnectionsPerRouter
+ * lists themselves. Paths that are equally short can be chosen either way, so it is the
+ * distances that have to match, and every router has to really be that far away through the
+ * parent it was given. The trees ShortestPathTree.update() repairs as the network changes have
+ * to come out the same as ones worked out again from scratch.
+ */
+class ShortestPathTreeTest {
+	static final int NETWORKS = 1000;
+	static final int MAX_ROUTERS = 24;
+	static final int MAX_DISTANCE = 9;
+	static final int CHANGING_NETWORKS = 200;
+	static final int CHANGES = 200;
+	static final EventLog SILENT_LOG = new EventLog(EventLog.Level.OFF, 2);
+
+	/**
+	 *
+	 * Network class
+	 *
+	 * A random network, and the FeatureReplies its routers send. About one router in six doesn't
+	 * send one, so is only known from the links its neighbours have to it. Most links are the
+	 * same distance both ways, and now and then a router lists a link twice.
+	 */
+	static class Network {
+		final int routers;
+		final boolean[] sendsFeatureReply;
+		final String[] hostNames;		// null where a router has no host
+		final int[][] distance;			// 0 where there is no link
+
+		Network(Random random)
+		{
+			routers = 1 + random.nextInt(MAX_ROUTERS);
+			sendsFeatureReply = new boolean[routers];
+			hostNames = new String[routers];
+			distance = new int[routers][routers];
+			double linkChance = random.nextDouble() * 4 / routers;
+			for(int i = 0; i < routers; i++)
+			{
+				sendsFeatureReply[i] = random.nextInt(6) != 0;
+				if(random.nextBoolean()) hostNames[i] = "H" + TopologyGenerator.NAME_CHARACTERS.charAt(i);
+				for(int j = 0; j < i; j++)
+					if(random.nextDouble() < linkChance) link(random, i, j);
+			}
+		}
+
+		void link(Random random, int from, int to)
+		{
+			distance[from][to] = 1 + random.nextInt(MAX_DISTANCE);
+			distance[to][from] = (random.nextInt(10) == 0) ? 1 + random.nextInt(MAX_DISTANCE) : distance[from][to];
+		}
+
+		String routerName(int router)
+		{
+			return "R" + TopologyGenerator.NAME_CHARACTERS.charAt(router);
+		}
+
+		// [routerName][hostName][router1name][router1distance]..., as Controller passes them on
+		String[] featureReply(Random random, int router)
+		{
+			ArrayList<String> reply = new ArrayList<String>();
+			reply.add(routerName(router));
+			reply.add((hostNames[router] == null) ? SNDContent.NO_NODE : hostNames[router]);
+			for(int to = 0; to < routers; to++)
+			{
+				if(distance[router][to] == 0) continue;
+				reply.add(routerName(to));
+				reply.add("" + distance[router][to]);
+				if(random.nextInt(20) == 0)
+				{
+					reply.add(routerName(to));
+					reply.add("" + (1 + random.nextInt(MAX_DISTANCE)));
+				}
+			}
+			return reply.toArray(new String[0]);
+		}
+
+		// One change to the network, and the FeatureReplies the routers at either end send again
+		// because of it: a router that hadn't sent its FeatureReply sending it, or a link being
+		// added, removed, or given a new distance one way or both
+		void change(Random random, ControllerFlowTable flowTable)
+		{
+			int from = random.nextInt(routers);
+			int to = random.nextInt(routers);
+			int kind = random.nextInt(4);
+			if(kind == 0 || from == to)
+			{
+				sendsFeatureReply[from] = true;
+				to = from;
+			}
+			else if(kind == 1)
+				link(random, from, to);
+			else if(kind == 2)
+				distance[from][to] = distance[to][from] = 0;
+			else
+				distance[from][to] = 1 + random.nextInt(MAX_DISTANCE);
+
+			if(sendsFeatureReply[from]) flowTable.addANewRouter(featureReply(random, from));
+			if(to != from && sendsFeatureReply[to]) flowTable.addANewRouter(featureReply(random, to));
+		}
+
+		// Every router that sends one sends its FeatureReply, in a random order
+		ControllerFlowTable newFlowTable(Random random)
+		{
+			ArrayList<Integer> order = new ArrayList<Integer>();
+			for(int i = 0; i < routers; i++)
+				if(sendsFeatureReply[i]) order.add(i);
+			Collections.shuffle(order, random);
+			ControllerFlowTable flowTable = new ControllerFlowTable(SILENT_LOG);
+			for(int router : order)
+				flowTable.addANewRouter(featureReply(random, router));
+			return flowTable;
+		}
+	}
+
+	@Test
+	void computeMatchesPlainDijkstra()
+	{
+		Random random = new Random(1);
+		IndexedMinHeap heap = new IndexedMinHeap(16);
+		for(int network = 0; network < NETWORKS; network++)
+		{
+			ControllerFlowTable flowTable = new Network(random).newFlowTable(random);
+			TopologyGraph graph = flowTable.getGraph();
+			for(int source = 0; source < graph.getRouterCount(); source++)
+			{
+				if(!graph.registered[source]) continue;
+				String description = "network " + network + ", from " + graph.routerNames[source];
+				ShortestPathTree tree = ShortestPathTree.compute(graph, source, heap);
+				HashMap<String, Integer> expected = plainDijkstra(flowTable, graph.routerNames[source]);
+				for(int router = 0; router < graph.getRouterCount(); router++)
+				{
+					Integer expectedDistance = expected.get(graph.routerNames[router]);
+					assertEquals((expectedDistance == null) ? ShortestPathTree.UNREACHABLE : (int) expectedDistance,
+							tree.distance[router], description + ", to " + graph.routerNames[router]);
+				}
+				assertTrue(tree.complete, description);
+				assertPathsValid(tree, description);
+			}
+		}
+	}
+
+	// Every router computeTowards() takes off the heap has the path compute() gives it, and
+	// the tree is only complete if that was every router that can be reached
+	@Test
+	void computeTowardsMatchesComputeAsFarAsItGoes()
+	{
+		Random random = new Random(2);
+		IndexedMinHeap heap = new IndexedMinHeap(16);
+		for(int network = 0; network < NETWORKS; network++)
+		{
+			TopologyGraph graph = new Network(random).newFlowTable(random).getGraph();
+			for(int source = 0; source < graph.getRouterCount(); source++)
+			{
+				if(!graph.registered[source]) continue;
+				ShortestPathTree whole = ShortestPathTree.compute(graph, source, heap);
+				int reachable = 0;
+				for(int router = 0; router < graph.getRouterCount(); router++)
+					if(whole.distance[router] != ShortestPathTree.UNREACHABLE) reachable++;
+
+				for(int target = 0; target < graph.getRouterCount(); target++)
+				{
+					String description = "network " + network + ", from " + graph.routerNames[source] + " towards " + graph.routerNames[target];
+					ShortestPathTree towards = ShortestPathTree.computeTowards(graph, source, target, heap);
+					int settled = 0;
+					for(int router = 0; router < graph.getRouterCount(); router++)
+					{
+						String where = description + ", router " + graph.routerNames[router];
+						if(towards.distance[router] != ShortestPathTree.UNREACHABLE)
+						{
+							settled++;
+							assertEquals(whole.distance[router], towards.distance[router], where);
+						}
+						else if(whole.distance[router] != ShortestPathTree.UNREACHABLE)
+						{
+							// Left out, so it must be no nearer than the target
+							assertTrue(whole.distance[router] >= whole.distance[target], where + " is nearer than the target but was left out");
+						}
+					}
+					assertEquals(whole.distance[target], towards.distance[target], description);
+					assertEquals(settled == reachable, towards.complete, description);
+					assertPathsValid(towards, description);
+				}
+			}
+		}
+	}
+
+	// A few changes at a time, and then some of the routers ask for their flow tables, either one
+	// after the other or all together on a pool. Now and then nobody asks, so that the changes
+	// from more than one step have to be put together. Every tree the Controller is keeping has
+	// then been repaired, and has to match one worked out from scratch.
+	@Test
+	void updateMatchesComputeAsTheNetworkChanges()
+	{
+		Random random = new Random(3);
+		IndexedMinHeap heap = new IndexedMinHeap(16);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for(int network = 0; network < CHANGING_NETWORKS; network++)
+			{
+				Network topology = new Network(random);
+				ControllerFlowTable flowTable = topology.newFlowTable(random);
+				HashSet<String> routersWithTrees = new HashSet<String>();
+				for(int step = 0; step < CHANGES; step++)
+				{
+					int changes = 1 + random.nextInt(3);
+					for(int change = 0; change < changes; change++)
+						topology.change(random, flowTable);
+					if(random.nextInt(4) == 0) continue;
+
+					ArrayList<String> asking = new ArrayList<String>();
+					for(ControllerFlowTable.DirectConnectionsPerRouter router : flowTable.allRouters)
+						if(random.nextInt(3) == 0) asking.add(router.routerName);
+					routersWithTrees.addAll(flowTable.updateFlowCharts(asking, random.nextBoolean() ? pool : null).keySet());
+
+					TopologyGraph graph = flowTable.getGraph();
+					for(String routerName : routersWithTrees)
+					{
+						String description = "network " + network + ", step " + step + ", from " + routerName;
+						ShortestPathTree repaired = flowTable.findPathsTowards(routerName, null);
+						assertTrue(repaired.graph == graph && repaired.complete, description);
+						ShortestPathTree fresh = ShortestPathTree.compute(graph, repaired.source, heap);
+						for(int router = 0; router < graph.getRouterCount(); router++)
+							assertEquals(fresh.distance[router], repaired.distance[router], description + ", to " + graph.routerNames[router]);
+						assertPathsValid(repaired, description);
+					}
+				}
+			}
+		} finally { pool.shutdown(); }
+	}
+
+	// Dijkstra's algorithm the simple way: distances kept by router name, and every tentative
+	// router searched for the closest one each time. Routers that haven't sent a FeatureReply
+	// can be reached, but have no links out.
+	static HashMap<String, Integer> plainDijkstra(ControllerFlowTable flowTable, String source)
+	{
+		HashMap<String, ControllerFlowTable.DirectConnectionsPerRouter> routers = new HashMap<String, ControllerFlowTable.DirectConnectionsPerRouter>();
+		for(ControllerFlowTable.DirectConnectionsPerRouter router : flowTable.allRouters)
+			routers.put(router.routerName, router);
+
+		HashMap<String, Integer> permanent = new HashMap<String, Integer>();
+		HashMap<String, Integer> tentative = new HashMap<String, Integer>();
+		tentative.put(source, 0);
+		while(!tentative.isEmpty())
+		{
+			String closest = null;
+			for(String router : tentative.keySet())
+				if(closest == null || tentative.get(router) < tentative.get(closest)) closest = router;
+			int distance = tentative.remove(closest);
+			permanent.put(closest, distance);
+
+			ControllerFlowTable.DirectConnectionsPerRouter connections = routers.get(closest);
+			if(connections == null) continue;
+			for(ControllerFlowTable.DistancesBetweenRouters link : connections.distances)
+			{
+				String to = link.getConnectedRouterName();
+				if(permanent.containsKey(to)) continue;
+				Integer best = tentative.get(to);
+				if(best == null || distance + link.getDistanceToRouter() < best)
+					tentative.put(to, distance + link.getDistanceToRouter());
+			}
+		}
+		return permanent;
+	}
+
+	// Every router the tree reaches is exactly as far away as its parent plus the link between
+	// them, and starts out the same way as its parent's path does
+	static void assertPathsValid(ShortestPathTree tree, String description)
+	{
+		TopologyGraph graph = tree.graph;
+		for(int router = 0; router < graph.getRouterCount(); router++)
+		{
+			String where = description + ", router " + graph.routerNames[router];
+			int parent = tree.parent[router];
+			if(router == tree.source)
+			{
+				assertEquals(0, tree.distance[router], where);
+				assertEquals(-1, parent, where);
+				assertEquals(router, tree.firstHop[router], where);
+			}
+			else if(tree.distance[router] == ShortestPathTree.UNREACHABLE)
+			{
+				assertEquals(-1, parent, where);
+				assertEquals(-1, tree.firstHop[router], where);
+			}
+			else
+			{
+				assertTrue(parent >= 0 && tree.distance[parent] != ShortestPathTree.UNREACHABLE, where + " has no parent in the tree");
+				int linkDistance = shortestLink(graph, parent, router);
+				assertTrue(linkDistance != ShortestPathTree.UNREACHABLE, where + " has no link from its parent");
+				assertEquals(tree.distance[parent] + linkDistance, tree.distance[router], where + " isn't as far away as its parent's path makes it");
+				assertEquals((parent == tree.source) ? router : tree.firstHop[parent], tree.firstHop[router], where + " doesn't start out the way its parent's path does");
+			}
+		}
+	}
+
+	static int shortestLink(TopologyGraph graph, int from, int to)
+	{
+		int shortest = ShortestPathTree.UNREACHABLE;
+		for(int edge = graph.edgeStart[from]; edge < graph.edgeStart[from + 1]; edge++)
+			if(graph.edgeTarget[edge] == to) shortest = Math.min(shortest, graph.edgeDistance[edge]);
+		return shortest;
+	}
+}